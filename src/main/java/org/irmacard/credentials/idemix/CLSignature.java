@@ -35,6 +35,8 @@ import java.util.List;
 import java.security.SecureRandom;
 
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.MultiExp;
+import org.irmacard.credentials.idemix.util.PrimePool;
 
 /**
  * Represents a bare Camenisch-Lysyanskaya signature. The block of messages, or
@@ -106,31 +108,56 @@ public class CLSignature {
 	}
 
 	protected static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<BigInteger> Rs) {
-		BigInteger n = pk.getModulus();
-		IdemixSystemParameters params = pk.getSystemParameters();
+		return signForIssuance(sk, pk, U, ms, Rs, (PrimePool) null).getSignature();
+	}
 
-		BigInteger R = Crypto.representToBases(Rs, ms, n, params.get_l_m());
+	/**
+	 * As {@link #signMessageBlockAndCommitment(IdemixSecretKey, IdemixPublicKey, BigInteger, List)},
+	 * but also returns the intermediate values that the issuer needs for the
+	 * proof of correctness of the signature.
+	 */
+	public static IssuanceContext signForIssuance(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms) {
+		return signForIssuance(sk, pk, U, ms, (PrimePool) null);
+	}
 
-		SecureRandom rnd = new SecureRandom();
+	/**
+	 * As {@link #signForIssuance(IdemixSecretKey, IdemixPublicKey, BigInteger, List)},
+	 * taking the prime e from the given pool if it is for the right range.
+	 *
+	 * @param primes
+	 *            pool of primes for e, may be null
+	 */
+	public static IssuanceContext signForIssuance(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, PrimePool primes) {
+		// Skip the first generator
+		List<BigInteger> Rs = pk.getGeneratorsR().subList(1, pk.getGeneratorsR().size());
+		return signForIssuance(sk, pk, U, ms, Rs, primes);
+	}
+
+	protected static IssuanceContext signForIssuance(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<BigInteger> Rs, PrimePool primes) {
+		return signForIssuance(sk, pk, U, ms, Rs, new SigningPool.Entry(sk, pk, primes));
+	}
 
-		BigInteger v_tilde = new BigInteger(params.get_l_v() - 1, rnd);
-		BigInteger two_l_v = new BigInteger("2").pow(params.get_l_v() - 1);
-		BigInteger v = two_l_v.add(v_tilde);
+	/**
+	 * Signs using the given values for v, S^v, e and its inverses, which must
+	 * not have been used for any other signature.
+	 */
+	static IssuanceContext signForIssuance(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<BigInteger> Rs, SigningPool.Entry pre) {
+		BigInteger n = pk.getModulus();
+		IdemixSystemParameters params = pk.getSystemParameters();
 
 		// Q = inv( S^v * R * U) * Z
-		BigInteger numerator = pk.getGeneratorS().modPow(v, n).multiply(R).multiply(U).mod(n);
-		BigInteger Q = pk.getGeneratorZ().multiply(numerator.modInverse(n)).mod(n);
-
-		BigInteger e = Crypto.probablyPrimeInBitRange(params.get_l_e() - 1,
-				params.get_l_e_prime() - 1);
+		MultiExp numerator = pk.newMultiExp();
+		Crypto.representToBases(numerator, Rs, ms, params.get_l_m());
+		numerator.multiply(pre.S_v).multiply(U);
+		BigInteger Q = pk.getGeneratorZ().multiply(numerator.compute().modInverse(n)).mod(n);
 
+		// A = Q^{1/e}, using the Chinese remainder theorem
 		// TODO: this is probably open to side channel attacks, maybe use a
 		// safe (raw) RSA signature?
-		BigInteger order = sk.get_p_prime_q_prime();
-		BigInteger e_inv = e.modInverse(order);
-		BigInteger A = Q.modPow(e_inv, n);
+		BigInteger A = sk.root(Q, pre.e_inverse_p, pre.e_inverse_q);
 
-		return new CLSignature(A, e, v);
+		CLSignature signature = new CLSignature(A, pre.e, pre.v);
+		return new IssuanceContext(signature, Q, sk.get_p_prime_q_prime(), pre.e_inverse);
 	}
 
 	public boolean verify(IdemixPublicKey pk, List<BigInteger> ms) {
@@ -140,32 +167,36 @@ public class CLSignature {
 	public boolean verifyDistributed(IdemixPublicKey pk, List<BigInteger> ms,
 			List<BigInteger> public_sks) {
 		IdemixSystemParameters params = pk.getSystemParameters();
-		BigInteger n = pk.getModulus();
 
-		// Check that e in [2^{l_e - 1}, 2^{l_e - 1} + 2^{l_e_prime -1}]
-		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
-		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
-		if(e.compareTo(start) < 0 || e.compareTo(end) > 0) {
+		if (!isPrimeInRange(params)) {
 			System.out.println("Prime in signature out of range");
 			return false;
 		}
 
 		// Q = A^e * R * S^v
-		BigInteger R = Crypto.representToBases(pk.getGeneratorsR(), ms, n, params.get_l_m());
+		MultiExp Q = pk.newMultiExp();
+		Crypto.representToBases(Q, pk.getGeneratorsR(), ms, params.get_l_m());
 
 		// Add in the public_sks
 		if(public_sks != null) {
 			for(BigInteger public_sk : public_sks) {
-				R = R.multiply(public_sk).mod(n);
+				Q.multiply(public_sk);
 			}
 		}
 
-		BigInteger Ae = this.A.modPow(e, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v, n);
-		BigInteger Q = Ae.multiply(R).multiply(Sv).mod(n);
+		Q.add(this.A, e);
+		Q.add(pk.getGeneratorS(), this.v);
 
+		return pk.getGeneratorZ().equals(Q.compute());
+	}
 
-		return pk.getGeneratorZ().equals(Q);
+	/**
+	 * Check that e in [2^{l_e - 1}, 2^{l_e - 1} + 2^{l_e_prime -1}]
+	 */
+	boolean isPrimeInRange(IdemixSystemParameters params) {
+		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
+		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
+		return e.compareTo(start) >= 0 && e.compareTo(end) <= 0;
 	}
 
 	/**
@@ -179,7 +210,7 @@ public class CLSignature {
 		SecureRandom rnd = new SecureRandom();
 
 		BigInteger randomizer = new BigInteger(params.get_l_r_a(), rnd);
-		BigInteger A_prime = A.multiply(pk.getGeneratorS().modPow(randomizer, n)).mod(n);
+		BigInteger A_prime = A.multiply(pk.modPowS(randomizer)).mod(n);
 		BigInteger v_prime = v.subtract(e.multiply(randomizer));
 
 		return new CLSignature(A_prime, e, v_prime);
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.MultiExp;
+
+/**
+ * Verifies many Camenisch-Lysyanskaya signatures under the same public key
+ * at once, using the small exponent test on the squared verification
+ * equations: for random l_statzk-bit d_j, it checks that
+ * <pre>
+ *   prod_j (A_j^{e_j} * prod_i R_i^{m_ji} * S^{v_j})^{2 d_j} = Z^{2 sum_j d_j}
+ * </pre>
+ * Collecting the exponents of S and of each R_i leaves a single
+ * multi-exponentiation with one variable base A_j per signature. If the
+ * check fails, the batch is split in halves until the invalid signatures are
+ * found ({@link #findInvalid()}).
+ * <p>
+ * Squaring removes the sign of A: if the batch passes then, except with
+ * probability 2^{-l_statzk}, each signature is valid <em>up to the sign of
+ * A</em>, i.e. either (A, e, v) or (-A, e, v) is a valid signature. Since
+ * anyone can negate A, accepting both does not make forging any easier, but
+ * a caller that needs A itself to be valid can either:
+ * <ul>
+ * <li>pass the secret key (e.g. when the issuer audits its own signatures),
+ * in which case each A is checked to have the Legendre symbol modulo p that
+ * its verification equation implies. Since n is a Blum integer, -1 is a
+ * non-square modulo p, so this rules out -A at the cost of a Legendre symbol
+ * per signature; or</li>
+ * <li>normalize the sign of A with a single
+ * {@link CLSignature#verify(IdemixPublicKey, List)} on signatures it
+ * actually uses.</li>
+ * </ul>
+ */
+public class CLSignatureBatchVerifier {
+	private final IdemixPublicKey pk;
+	private final IdemixSecretKey sk;
+	private final List<CLSignature> signatures = new ArrayList<>();
+	private final List<List<BigInteger>> messages = new ArrayList<>();
+
+	// Legendre symbols modulo p of the generators, only used with the secret key
+	private int symbolZ;
+	private int symbolS;
+	private int[] symbolsR;
+
+	private final SecureRandom rnd = new SecureRandom();
+
+	/**
+	 * A verifier that accepts signatures that are valid up to the sign of A
+	 * (see above).
+	 */
+	public CLSignatureBatchVerifier(IdemixPublicKey pk) {
+		this(pk, null);
+	}
+
+	/**
+	 * A verifier that uses the secret key to rule out signatures with -A
+	 * instead of A, so that it only accepts signatures that are valid as is.
+	 *
+	 * @param sk	the secret key belonging to pk, or null
+	 */
+	public CLSignatureBatchVerifier(IdemixPublicKey pk, IdemixSecretKey sk) {
+		this.pk = pk;
+		this.sk = sk;
+
+		if (sk != null) {
+			BigInteger p = sk.get_p();
+			symbolZ = Crypto.jacobi(pk.getGeneratorZ(), p);
+			symbolS = Crypto.jacobi(pk.getGeneratorS(), p);
+			List<BigInteger> R = pk.getGeneratorsR();
+			symbolsR = new int[R.size()];
+			for (int i = 0; i < symbolsR.length; i++)
+				symbolsR[i] = Crypto.jacobi(R.get(i), p);
+		}
+	}
+
+	/**
+	 * Adds a signature on the given block of messages, as would be checked by
+	 * {@link CLSignature#verify(IdemixPublicKey, List)}.
+	 */
+	public void add(CLSignature signature, List<BigInteger> ms) {
+		if (ms.size() > pk.getGeneratorsR().size())
+			throw new IllegalArgumentException("Not enough bases to represent exponents");
+
+		signatures.add(signature);
+		messages.add(ms);
+	}
+
+	public int size() {
+		return signatures.size();
+	}
+
+	/**
+	 * Returns true if (except with probability 2^{-l_statzk}) all signatures
+	 * are valid, up to the sign of A if this verifier has no secret key.
+	 */
+	public boolean verify() {
+		List<Integer> all = new ArrayList<>(signatures.size());
+		for (int j = 0; j < signatures.size(); j++) {
+			if (!isPlausible(j))
+				return false;
+			all.add(j);
+		}
+
+		return holds(all);
+	}
+
+	/**
+	 * Returns the indices (in order of addition) of the signatures that
+	 * {@link #verify()} does not accept.
+	 */
+	public List<Integer> findInvalid() {
+		List<Integer> invalid = new ArrayList<>();
+		List<Integer> candidates = new ArrayList<>(signatures.size());
+		for (int j = 0; j < signatures.size(); j++) {
+			if (isPlausible(j))
+				candidates.add(j);
+			else
+				invalid.add(j);
+		}
+
+		bisect(candidates, invalid);
+		Collections.sort(invalid);
+		return invalid;
+	}
+
+	private void bisect(List<Integer> indices, List<Integer> invalid) {
+		if (indices.isEmpty() || holds(indices))
+			return;
+
+		if (indices.size() == 1) {
+			invalid.add(indices.get(0));
+			return;
+		}
+
+		int half = indices.size() / 2;
+		bisect(indices.subList(0, half), invalid);
+		bisect(indices.subList(half, indices.size()), invalid);
+	}
+
+	/**
+	 * The cheap checks on a single signature: e is in range, and if we have
+	 * the secret key, A has the Legendre symbol modulo p that
+	 * A^e = Z * S^{-v} * prod_i R_i^{-m_i} implies. As e is odd, that is the
+	 * product of the symbols of the generators with an odd exponent, which
+	 * does not depend on A (or on the U the issuer signed) at all, whereas
+	 * -A has the opposite symbol.
+	 */
+	private boolean isPlausible(int j) {
+		CLSignature signature = signatures.get(j);
+		if (!signature.isPrimeInRange(pk.getSystemParameters()))
+			return false;
+		if (sk == null)
+			return true;
+
+		List<BigInteger> ms = messages.get(j);
+		int expected = symbolZ;
+		if (signature.get_v().testBit(0))
+			expected *= symbolS;
+		for (int i = 0; i < ms.size(); i++)
+			if (exponent(ms.get(i)).testBit(0))
+				expected *= symbolsR[i];
+		return Crypto.jacobi(signature.getA(), sk.get_p()) == expected;
+	}
+
+	/**
+	 * The small exponent test on the squares of the verification equations
+	 * of the given signatures.
+	 */
+	private boolean holds(List<Integer> indices) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		List<BigInteger> R = pk.getGeneratorsR();
+
+		BigInteger[] R_exponents = new BigInteger[R.size()];
+		for (int i = 0; i < R_exponents.length; i++)
+			R_exponents[i] = BigInteger.ZERO;
+		BigInteger S_exponent = BigInteger.ZERO;
+		BigInteger Z_exponent = BigInteger.ZERO;
+
+		MultiExp check = pk.newMultiExp();
+		for (int j : indices) {
+			CLSignature signature = signatures.get(j);
+			List<BigInteger> ms = messages.get(j);
+
+			BigInteger d;
+			do {
+				d = new BigInteger(params.get_l_statzk(), rnd);
+			} while (d.signum() == 0);
+			d = d.shiftLeft(1);
+
+			check.add(signature.getA(), signature.get_e().multiply(d));
+			for (int i = 0; i < ms.size(); i++)
+				R_exponents[i] = R_exponents[i].add(exponent(ms.get(i)).multiply(d));
+			S_exponent = S_exponent.add(signature.get_v().multiply(d));
+			Z_exponent = Z_exponent.add(d);
+		}
+
+		for (int i = 0; i < R_exponents.length; i++)
+			check.add(R.get(i), R_exponents[i]);
+		check.add(pk.getGeneratorS(), S_exponent);
+		check.add(pk.getGeneratorZ(), Z_exponent.negate());
+
+		return check.compute().equals(BigInteger.ONE);
+	}
+
+	/**
+	 * The exponent that a message is signed as, like
+	 * {@link CLSignature#verify(IdemixPublicKey, List)} does.
+	 */
+	private BigInteger exponent(BigInteger m) {
+		if (m.bitLength() > pk.getSystemParameters().get_l_m())
+			return Crypto.sha256Hash(m.toByteArray());
+		return m;
+	}
+}
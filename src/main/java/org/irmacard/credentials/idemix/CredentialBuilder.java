@@ -34,6 +34,8 @@ import java.math.BigInteger;
 import java.util.List;
 import java.security.SecureRandom;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import org.irmacard.credentials.CredentialsException;
 import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
@@ -42,6 +44,8 @@ import org.irmacard.credentials.idemix.proofs.ProofListBuilder;
 import org.irmacard.credentials.idemix.proofs.ProofU;
 import org.irmacard.credentials.idemix.proofs.ProofUBuilder;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.CryptoExecutors;
+import org.irmacard.credentials.idemix.util.CryptoTask;
 
 public class CredentialBuilder {
 	// State
@@ -49,6 +53,7 @@ public class CredentialBuilder {
 	private BigInteger v_prime;
 	private BigInteger n_2;
 	private BigInteger U;
+	private PreparedCommitment prepared;
 
 	// Immutable Input
 	protected final IdemixPublicKey pk;
@@ -124,6 +129,19 @@ public class CredentialBuilder {
 		return new IdemixCredential(pk, s, attributes, signature);
 	}
 
+	/**
+	 * As {@link #constructCredential(IssueSignatureMessage)}, but runs on the given executor (or the
+	 * default one of {@link CryptoExecutors} if it is null).
+	 */
+	public CryptoTask<IdemixCredential> constructCredentialAsync(final IssueSignatureMessage msg, Executor executor) {
+		return CryptoTask.submit(new Callable<IdemixCredential>() {
+			@Override
+			public IdemixCredential call() throws CredentialsException {
+				return constructCredential(msg);
+			}
+		}, executor);
+	}
+
 	public void setSecret(BigInteger secret) {
 		// State that needs to be stored
 		this.s = secret;
@@ -145,6 +163,34 @@ public class CredentialBuilder {
 		this.n_2 = nonce2;
 	}
 
+	/**
+	 * Uses a commitment to the secret that was prepared ahead of time, instead
+	 * of computing one after the issuer's nonce has arrived. Call this after
+	 * {@link #setSecret(BigInteger)}; the {@link ProofUBuilder} of this
+	 * builder then also takes its randomizers and commitment from it.
+	 *
+	 * @throws IllegalArgumentException if the commitment is for another public key or secret
+	 * @throws IllegalStateException if this builder already committed, or the commitment was used before
+	 */
+	public void usePreparedCommitment(PreparedCommitment commitment) {
+		if (!commitment.isFor(pk, s))
+			throw new IllegalArgumentException("Prepared commitment is for a different public key or secret");
+		if (U != null)
+			throw new IllegalStateException("Already committed to the secret");
+
+		commitment.claim();
+		this.prepared = commitment;
+		this.v_prime = commitment.get_v_prime();
+		this.U = commitment.getU();
+	}
+
+	/**
+	 * Returns the prepared commitment that this builder uses, or null.
+	 */
+	public PreparedCommitment getPreparedCommitment() {
+		return prepared;
+	}
+
 	public BigInteger commitmentToSecret() {
 		if (U == null) {
 			// FIXME: Not according to protocol, only positives possible this way
@@ -152,9 +198,10 @@ public class CredentialBuilder {
 			v_prime = Crypto.randomUnsignedInteger(params.get_l_v_prime());
 
 			// U = S^{v_prime} * R_0^{s}
-			BigInteger Sv = pk.getGeneratorS().modPow(v_prime, n);
-			BigInteger R0s = pk.getGeneratorR(0).modPow(s, n);
-			U = Sv.multiply(R0s).mod(n);
+			U = pk.newMultiExp()
+					.add(pk.getGeneratorS(), v_prime)
+					.add(pk.getGeneratorR(0), s)
+					.compute();
 		}
 
 		return U;
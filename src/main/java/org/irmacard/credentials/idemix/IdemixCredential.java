@@ -34,6 +34,7 @@ import org.irmacard.credentials.Attributes;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
 import org.irmacard.credentials.idemix.proofs.ProofD;
 import org.irmacard.credentials.idemix.proofs.ProofDBuilder;
+import org.irmacard.credentials.idemix.proofs.ProofDPool;
 import org.irmacard.credentials.info.CredentialIdentifier;
 import org.irmacard.credentials.info.KeyException;
 
@@ -54,6 +55,8 @@ public class IdemixCredential {
 
 	private transient int hashCode = 0;
 
+	private transient ProofDPool proofDPool;
+
 	public IdemixCredential(IdemixPublicKey issuer_pk,
 			List<BigInteger> attributes, CLSignature signature) {
 		this.issuer_pk = issuer_pk;
@@ -113,6 +116,21 @@ public class IdemixCredential {
 		return (ProofD) builder.createProof(context, nonce1);
 	}
 
+	/**
+	 * Sets the pool of precomputed disclosure proof values that
+	 * {@link ProofDBuilder}s for this credential take from (null for none).
+	 * @throws IllegalArgumentException if the pool is for another credential
+	 */
+	public void setProofDPool(ProofDPool pool) {
+		if (pool != null && pool.getCredential() != this)
+			throw new IllegalArgumentException("Proof pool is for a different credential");
+		this.proofDPool = pool;
+	}
+
+	public ProofDPool getProofDPool() {
+		return proofDPool;
+	}
+
 	public int getNrAttributes() {
 		return attributes.size();
 	}
@@ -31,14 +31,29 @@
 package org.irmacard.credentials.idemix;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.irmacard.credentials.CredentialsException;
 import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
 import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
+import org.irmacard.credentials.idemix.proofs.Proof;
 import org.irmacard.credentials.idemix.proofs.ProofList;
 import org.irmacard.credentials.idemix.proofs.ProofS;
+import org.irmacard.credentials.idemix.proofs.ProofU;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.CryptoExecutors;
+import org.irmacard.credentials.idemix.util.CryptoTask;
+import org.irmacard.credentials.idemix.util.PrimePool;
+import org.irmacard.credentials.info.KeyException;
 
 public class IdemixIssuer {
 	private IdemixSecretKey sk;
@@ -46,6 +61,11 @@ public class IdemixIssuer {
 
 	private BigInteger context;
 
+	private PrimePool primePool;
+	private SigningPool signingPool;
+	private IssuanceTemplate template;
+	private Executor speculativeExecutor;
+
 	public IdemixIssuer(IdemixPublicKey pk, IdemixSecretKey sk,
 			BigInteger context) {
 
@@ -98,10 +118,256 @@ public class IdemixIssuer {
 		}
 	}
 
-	public IssueSignatureMessage issueSignature(IssueCommitmentMessage msg,
-			List<BigInteger> attrs, int index, BigInteger nonce1) throws CredentialsException {
+	public IssueSignatureMessage issueSignature(final IssueCommitmentMessage msg,
+			final List<BigInteger> attrs, final int index, final BigInteger nonce1) throws CredentialsException {
+		Executor executor = speculativeExecutor;
+		if (executor == null) {
+			verifyCommitments(msg, nonce1);
+			return issueSignatureNoCheck(msg, attrs, index, nonce1);
+		}
+
+		// Sign while the commitments are being verified, and only hand out the result if they are correct
+		FutureTask<IssueSignatureMessage> signing = new FutureTask<>(new Callable<IssueSignatureMessage>() {
+			@Override
+			public IssueSignatureMessage call() throws CredentialsException {
+				return issueSignatureNoCheck(msg, attrs, index, nonce1);
+			}
+		});
+		try {
+			executor.execute(signing);
+		} catch (RejectedExecutionException e) {
+			// No speculation then: never sign before the commitments are verified on this thread
+			verifyCommitments(msg, nonce1);
+			return issueSignatureNoCheck(msg, attrs, index, nonce1);
+		}
+
+		try {
+			verifyCommitments(msg, nonce1);
+		} catch (CredentialsException|RuntimeException e) {
+			signing.cancel(true);
+			throw e;
+		}
+
+		// If no worker has picked up the signing task yet, run it here instead of waiting for it. Otherwise
+		// callers that are themselves running on the executor could all end up waiting for queued tasks.
+		signing.run();
+		try {
+			return signing.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CredentialsException)
+				throw (CredentialsException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			signing.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while issuing signature", e);
+		}
+	}
+
+	/**
+	 * As {@link #issueSignature(IssueCommitmentMessage, List, int, BigInteger)}, but runs on the given
+	 * executor (or the default one of {@link CryptoExecutors} if it is null). The task fails with a
+	 * {@link CredentialsException} if the commitment proofs are not correct.
+	 */
+	public CryptoTask<IssueSignatureMessage> issueSignatureAsync(final IssueCommitmentMessage msg,
+			final List<BigInteger> attrs, final int index, final BigInteger nonce1, Executor executor) {
+		return CryptoTask.submit(new Callable<IssueSignatureMessage>() {
+			@Override
+			public IssueSignatureMessage call() throws CredentialsException {
+				return issueSignature(msg, attrs, index, nonce1);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Issues signatures for all given requests, as
+	 * {@link #issueSignature(IssueCommitmentMessage, List, int, BigInteger)}
+	 * does for each of them, on the calling thread.
+	 */
+	public List<IssueResult> issueSignatures(List<IssueRequest> requests) {
+		return issueSignatures(requests, null);
+	}
+
+	/**
+	 * Issues signatures for all given requests, each of them as
+	 * {@link #issueSignature(IssueCommitmentMessage, List, int, BigInteger)}
+	 * does, in parallel on the given executor (or on the calling thread if it
+	 * is null). A request that the executor rejects is handled on the calling
+	 * thread. The prime and signing pools and the template of this issuer are
+	 * shared by all requests. The keys are used as they are (see
+	 * {@link #issueSignatures(List, Executor, boolean)}).
+	 *
+	 * @return the results in the order of the requests; a request that fails
+	 *         does not affect the others
+	 * @throws RuntimeException if the calling thread is interrupted while waiting
+	 */
+	public List<IssueResult> issueSignatures(List<IssueRequest> requests, Executor executor) {
+		return issueSignatures(requests, executor, false);
+	}
+
+	/**
+	 * As {@link #issueSignatures(List, Executor)}, but if prepareKeys is set,
+	 * first prepares each distinct key that the batch uses once, so that all
+	 * requests share its state: the CRT state of the secret key (see
+	 * {@link IdemixSecretKey#prepare()}) and the fixed-base tables (see
+	 * {@link IdemixPublicKey#prepare()}) of the public key of this issuer and
+	 * of the keys of the disclosure proofs in the combined proofs. The tables
+	 * stay with the keys afterwards, so this is meant for large batches on
+	 * long-lived keys.
+	 */
+	public List<IssueResult> issueSignatures(List<IssueRequest> requests, Executor executor,
+			boolean prepareKeys) {
+		if (prepareKeys)
+			prepareKeys(requests);
+
+		List<Callable<IssueResult>> tasks = new ArrayList<>(requests.size());
+		for (final IssueRequest request : requests) {
+			tasks.add(new Callable<IssueResult>() {
+				@Override
+				public IssueResult call() {
+					try {
+						return new IssueResult(issueSignature(request.getMessage(), request.getAttributes(),
+								request.getIndex(), request.getNonce1()));
+					} catch (CredentialsException|RuntimeException e) {
+						return new IssueResult(e);
+					}
+				}
+			});
+		}
+
+		try {
+			return invokeAll(tasks, executor);
+		} catch (ExecutionException e) {
+			// Only an Error can get here
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Issues signatures on all credentials of a combined issuance session: the
+	 * i-th list of attributes is signed together with the i-th ProofU in the
+	 * combined proofs of the message. The commitment proofs are verified once,
+	 * after which the signatures and their proofs are computed in parallel on
+	 * the given executor (or on the calling thread if it is null).
+	 *
+	 * @return the signature messages, in the order of the attribute lists
+	 * @throws CredentialsException when the commitment proof(s) is/are not correct, or when the number of
+	 *         attribute lists differs from the number of commitments in the message
+	 */
+	public List<IssueSignatureMessage> issueSignatures(final IssueCommitmentMessage msg,
+			List<List<BigInteger>> attrs, final BigInteger nonce1, Executor executor) throws CredentialsException {
+		int commitments = countCommitments(msg);
+		if (attrs.size() != commitments)
+			throw new CredentialsException("Message contains " + commitments + " commitments for "
+					+ attrs.size() + " credentials");
+
 		verifyCommitments(msg, nonce1);
-		return issueSignatureNoCheck(msg, attrs, index, nonce1);
+
+		List<Callable<IssueSignatureMessage>> tasks = new ArrayList<>(attrs.size());
+		for (int i = 0; i < attrs.size(); i++) {
+			final List<BigInteger> credentialAttrs = attrs.get(i);
+			final int index = i;
+			tasks.add(new Callable<IssueSignatureMessage>() {
+				@Override
+				public IssueSignatureMessage call() throws CredentialsException {
+					return issueSignatureNoCheck(msg, credentialAttrs, index, nonce1);
+				}
+			});
+		}
+
+		try {
+			return invokeAll(tasks, executor);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CredentialsException)
+				throw (CredentialsException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the number of ProofU's, i.e. of commitments to a secret key, in the message.
+	 */
+	private static int countCommitments(IssueCommitmentMessage msg) {
+		if (msg.getCombinedProofs() == null)
+			return msg.getCommitmentProof() == null ? 0 : 1;
+
+		int count = 0;
+		for (Proof proof : msg.getCombinedProofs())
+			if (proof instanceof ProofU)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Prepares the secret key, and each distinct public key used by the given
+	 * requests once. Keys that cannot be found are skipped, the requests
+	 * concerned fail when their proofs are verified.
+	 */
+	private void prepareKeys(List<IssueRequest> requests) {
+		sk.prepare();
+
+		Set<IdemixPublicKey> keys = Collections.newSetFromMap(new IdentityHashMap<IdemixPublicKey, Boolean>());
+		keys.add(pk);
+		for (IssueRequest request : requests) {
+			ProofList proofs = request.getMessage().getCombinedProofs();
+			if (proofs == null)
+				continue;
+			for (Proof proof : proofs) {
+				try {
+					IdemixPublicKey key = proof.extractPublicKey();
+					if (key != null) // A ProofU is under our own key
+						keys.add(key);
+				} catch (KeyException|RuntimeException e) {
+					// Reported by the request itself
+				}
+			}
+		}
+
+		for (IdemixPublicKey key : keys)
+			key.prepare();
+	}
+
+	/**
+	 * Runs the tasks on the executor (or on the calling thread if it is null,
+	 * or if the executor rejects a task), and returns their results in order.
+	 * If a task fails, the others are cancelled.
+	 *
+	 * @throws ExecutionException wrapping the exception of the first failed task
+	 * @throws RuntimeException if the calling thread is interrupted while waiting
+	 */
+	private static <T> List<T> invokeAll(List<Callable<T>> tasks, Executor executor) throws ExecutionException {
+		List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			FutureTask<T> future = new FutureTask<>(task);
+			futures.add(future);
+
+			if (executor == null) {
+				future.run();
+			} else {
+				try {
+					executor.execute(future);
+				} catch (RejectedExecutionException e) {
+					future.run();
+				}
+			}
+		}
+
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			for (FutureTask<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while issuing signatures", e);
+		} finally {
+			for (FutureTask<T> future : futures)
+				future.cancel(true);
+		}
 	}
 
 	/**
@@ -121,10 +387,10 @@ public class IdemixIssuer {
 			U = msg.getCommitmentProof().getU();
 		}
 
-		CLSignature signature = signCommitmentAndAttributes(U, attrs);
-		ProofS proof = proveSignature(signature, msg.getNonce2());
+		IssuanceContext issuance = signForIssuance(U, attrs);
+		ProofS proof = proveSignature(issuance, msg.getNonce2());
 
-		return new IssueSignatureMessage(signature, proof);
+		return new IssueSignatureMessage(issuance.getSignature(), proof);
 	}
 
 	/**
@@ -144,6 +410,112 @@ public class IdemixIssuer {
 		return CLSignature.signMessageBlockAndCommitment(sk, pk, U, attrs);
 	}
 
+	/**
+	 * As {@link #signCommitmentAndAttributes(BigInteger, List)}, but also
+	 * returns the intermediate values needed by
+	 * {@link #proveSignature(IssuanceContext, BigInteger)}.
+	 */
+	protected IssuanceContext signForIssuance(BigInteger U, List<BigInteger> attrs) {
+		// Skip the first generator
+		List<BigInteger> Rs = pk.getGeneratorsR().subList(1, pk.getGeneratorsR().size());
+
+		// The fixed attributes enter the signature just like U does
+		IssuanceTemplate template = this.template;
+		if (template != null && attrs.size() <= Rs.size() && template.matches(attrs)) {
+			U = U.multiply(template.getProduct(pk)).mod(pk.getModulus());
+			Rs = template.varying(Rs.subList(0, attrs.size()));
+			attrs = template.varying(attrs);
+		}
+
+		SigningPool.Entry pre = signingPool != null ? signingPool.next() : new SigningPool.Entry(sk, pk, primePool);
+		return CLSignature.signForIssuance(sk, pk, U, attrs, Rs, pre);
+	}
+
+	/**
+	 * Creates a pool of primes for the signature exponent e of credentials
+	 * with the given system parameters, which can be shared by all issuers
+	 * using these parameters (see {@link #setPrimePool(PrimePool)}).
+	 *
+	 * @param capacity			maximum number of primes in the pool
+	 * @param lowWatermark		refill when fewer than this many primes are left
+	 * @param threads			number of background threads
+	 */
+	public static PrimePool createPrimePool(IdemixSystemParameters params,
+			int capacity, int lowWatermark, int threads) {
+		return new PrimePool(params.get_l_e() - 1, params.get_l_e_prime() - 1,
+				capacity, lowWatermark, threads);
+	}
+
+	/**
+	 * Take the primes e for new signatures from the given pool, or generate
+	 * them while signing if the pool is null (the default).
+	 *
+	 * @throws IllegalArgumentException if the pool is for different system parameters
+	 */
+	public void setPrimePool(PrimePool primePool) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		if (primePool != null && !primePool.isFor(params.get_l_e() - 1, params.get_l_e_prime() - 1))
+			throw new IllegalArgumentException("Prime pool is for different system parameters");
+
+		this.primePool = primePool;
+	}
+
+	public PrimePool getPrimePool() {
+		return primePool;
+	}
+
+	/**
+	 * Take v, S^v, e and the inverses of e for new signatures from the given
+	 * pool, or compute them while signing if the pool is null (the default).
+	 * A signing pool takes precedence over a prime pool.
+	 *
+	 * @throws IllegalArgumentException if the pool is for a different key
+	 */
+	public void setSigningPool(SigningPool signingPool) {
+		if (signingPool != null && !signingPool.isFor(pk))
+			throw new IllegalArgumentException("Signing pool is for a different key");
+
+		this.signingPool = signingPool;
+	}
+
+	public SigningPool getSigningPool() {
+		return signingPool;
+	}
+
+	/**
+	 * Use the cached product of the fixed attributes of the given template when
+	 * signing attributes that match it, or sign all attributes separately if
+	 * the template is null (the default). Attributes that do not match the
+	 * template are also signed as usual.
+	 */
+	public void setTemplate(IssuanceTemplate template) {
+		this.template = template;
+	}
+
+	public IssuanceTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Opt in to speculative issuance: if the executor is not null, then
+	 * {@link #issueSignature(IssueCommitmentMessage, List, int, BigInteger)}
+	 * computes the signature and its proof on the executor while it verifies
+	 * the commitments on the calling thread. The signature is returned only if
+	 * the commitments are correct; otherwise it is discarded (its prime e is
+	 * never used again). For honest requests this overlaps the two phases of
+	 * issuance, at the cost of wasted signing work for invalid ones. If the
+	 * signing task has not started by the time the commitments are verified,
+	 * the calling thread runs it itself, so the executor may be shared with
+	 * callers of this method.
+	 */
+	public void setSpeculativeExecutor(Executor executor) {
+		this.speculativeExecutor = executor;
+	}
+
+	public Executor getSpeculativeExecutor() {
+		return speculativeExecutor;
+	}
+
 	/**
 	 * Proof of the knowledge of $e^{-1}$ in the signature.
 	 *
@@ -157,14 +529,31 @@ public class IdemixIssuer {
 	 * @return A proof of knowledge of e^{-1}
 	 */
 	public ProofS proveSignature(CLSignature signature, BigInteger n_2) {
-		BigInteger n = pk.getModulus();
-		BigInteger Q = signature.getA().modPow(signature.get_e(), n);
-		BigInteger group_modulus = sk.get_p_prime_q_prime();
-		BigInteger e_inverse = signature.get_e().modInverse(group_modulus);
+		// Exponentiations modulo n use the Chinese remainder theorem
+		BigInteger Q = sk.modPow(signature.getA(), signature.get_e());
+		return proveSignature(new IssuanceContext(signature, Q, sk.get_p_prime_q_prime()), n_2);
+	}
+
+	/**
+	 * Proof of the knowledge of $e^{-1}$ in the signature, reusing Q = A^e and
+	 * e^{-1} from signing.
+	 *
+	 * @param issuance
+	 *            signature and intermediate values, from
+	 *            {@link #signForIssuance(BigInteger, List)}
+	 * @param n_2
+	 *            Nonce
+	 * @return A proof of knowledge of e^{-1}
+	 */
+	public ProofS proveSignature(IssuanceContext issuance, BigInteger n_2) {
+		CLSignature signature = issuance.getSignature();
+		BigInteger Q = issuance.getQ();
+		BigInteger group_modulus = issuance.getGroupModulus();
+		BigInteger e_inverse = issuance.get_e_inverse();
 
 		BigInteger e_commit = Crypto
 				.randomElementMultiplicativeGroup(group_modulus);
-		BigInteger A_commit = Q.modPow(e_commit, n);
+		BigInteger A_commit = sk.modPow(Q, e_commit);
 
 		BigInteger c = Crypto.sha256Hash(Crypto.asn1Encode(context, Q,
 				signature.getA(), n_2, A_commit));
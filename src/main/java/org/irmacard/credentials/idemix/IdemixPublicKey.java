@@ -31,6 +31,9 @@
 package org.irmacard.credentials.idemix;
 
 import org.irmacard.credentials.PublicKey;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.Montgomery;
+import org.irmacard.credentials.idemix.util.MultiExp;
 import org.irmacard.credentials.info.ConfigurationParser;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerDescription;
@@ -62,6 +65,13 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 	private int counter;
 	private Date expiryDate;
 
+	// Fixed-base exponentiation tables, only present after prepare()
+	private transient volatile FixedBaseTable S_table;
+	private transient volatile FixedBaseTable Z_table;
+	private transient volatile FixedBaseTable[] R_tables;
+	private transient volatile Map<BigInteger, FixedBaseTable> tablesByBase;
+	private transient volatile Montgomery montgomery;
+
 	public IdemixPublicKey(BigInteger n, BigInteger Z, BigInteger S,
 			List<BigInteger> R) {
 
@@ -82,19 +92,23 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 
 	public void set_n(BigInteger n) {
 		this.n = n;
+		unprepare();
 	}
 
 	public void set_Z(BigInteger Z) {
 		this.Z = Z;
+		unprepare();
 	}
 
 	public void set_S(BigInteger S) {
 		this.S = S;
+		unprepare();
 	}
 
 	public void set_Ri(int i, BigInteger Ri) {
 		System.out.println("Setting R" + i + ": " + Ri);
 		R.set(i, Ri);
+		unprepare();
 	}
 
 	/**
@@ -175,6 +189,119 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		return R;
 	}
 
+	/**
+	 * Precomputes fixed-base exponentiation tables for S, Z and all R_i, after
+	 * which {@link #modPowS(BigInteger)}, {@link #modPowZ(BigInteger)} and
+	 * {@link #modPowR(int, BigInteger)} no longer do any squarings. The tables
+	 * cover the exponent sizes that occur in the issuance and disclosure
+	 * protocols, and take a few megabytes for 2048 bit keys, so this is meant
+	 * for long-lived keys on verifiers and issuers.
+	 */
+	public synchronized void prepare() {
+		if (isPrepared())
+			return;
+
+		IdemixSystemParameters params = getSystemParameters();
+
+		// v_response in disclosure proofs is the largest exponent of S, the
+		// s_response in issuance proofs the largest one of the R_i
+		int S_bits = params.get_l_v_commit() + 2;
+		int R_bits = params.get_l_s_commit() + 2;
+
+		Montgomery mont = getMontgomery();
+		int w = FixedBaseTable.DEFAULT_WINDOW;
+		Map<BigInteger, FixedBaseTable> byBase = new HashMap<>();
+
+		FixedBaseTable[] tables = new FixedBaseTable[R.size()];
+		for (int i = 0; i < R.size(); i++) {
+			tables[i] = new FixedBaseTable(R.get(i), mont, R_bits, w);
+			byBase.put(R.get(i), tables[i]);
+		}
+		FixedBaseTable Z_tab = new FixedBaseTable(Z, mont, params.get_l_h(), w);
+		FixedBaseTable S_tab = new FixedBaseTable(S, mont, S_bits, w);
+		byBase.put(Z, Z_tab);
+		byBase.put(S, S_tab);
+
+		R_tables = tables;
+		Z_table = Z_tab;
+		tablesByBase = Collections.unmodifiableMap(byBase);
+		S_table = S_tab;
+	}
+
+	public boolean isPrepared() {
+		return S_table != null;
+	}
+
+	/**
+	 * The fixed-base tables by base, or null if this key is not prepared.
+	 */
+	Map<BigInteger, FixedBaseTable> getTables() {
+		return tablesByBase;
+	}
+
+	private synchronized void unprepare() {
+		S_table = null;
+		Z_table = null;
+		R_tables = null;
+		tablesByBase = null;
+		montgomery = null;
+	}
+
+	/**
+	 * Returns the Montgomery arithmetic modulo n, shared by all fixed-base
+	 * tables of this key.
+	 */
+	public Montgomery getMontgomery() {
+		Montgomery mont = montgomery;
+		if (mont == null) {
+			mont = new Montgomery(n);
+			montgomery = mont;
+		}
+		return mont;
+	}
+
+	/**
+	 * Starts a new multi-exponentiation modulo n. If this key has been
+	 * prepared, terms with base S, Z or one of the R_i are computed using the
+	 * fixed-base tables.
+	 */
+	public MultiExp newMultiExp() {
+		return new MultiExp(getMontgomery(), tablesByBase);
+	}
+
+	/**
+	 * Computes S^exponent (mod n), using the precomputed table if this key has
+	 * been prepared.
+	 */
+	public BigInteger modPowS(BigInteger exponent) {
+		FixedBaseTable table = S_table;
+		if (table == null)
+			return S.modPow(exponent, n);
+		return table.pow(exponent);
+	}
+
+	/**
+	 * Computes Z^exponent (mod n), using the precomputed table if this key has
+	 * been prepared.
+	 */
+	public BigInteger modPowZ(BigInteger exponent) {
+		FixedBaseTable table = Z_table;
+		if (table == null)
+			return Z.modPow(exponent, n);
+		return table.pow(exponent);
+	}
+
+	/**
+	 * Computes R_i^exponent (mod n), using the precomputed table if this key
+	 * has been prepared.
+	 */
+	public BigInteger modPowR(int i, BigInteger exponent) {
+		FixedBaseTable[] tables = R_tables;
+		if (tables == null)
+			return R.get(i).modPow(exponent, n);
+		return tables[i].pow(exponent);
+	}
+
 	public IdemixSystemParameters getSystemParameters() {
 		if (systemParameters == null) {
 			try {
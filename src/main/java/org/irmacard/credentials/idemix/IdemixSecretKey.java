@@ -52,6 +52,9 @@ public class IdemixSecretKey extends ConfigurationParser {
 	private BigInteger p_prime;
 	private BigInteger q_prime;
 
+	// Chinese remainder theorem parameters and p'q', computed on first use
+	private transient volatile CRT crt;
+
 	public IdemixSecretKey(BigInteger p, BigInteger q) throws InfoException {
 		super();
 
@@ -108,6 +111,80 @@ public class IdemixSecretKey extends ConfigurationParser {
 	}
 
 	public BigInteger get_p_prime_q_prime() {
-		return p_prime.multiply(q_prime);
+		return getCRT().p_prime_q_prime;
+	}
+
+	/**
+	 * Computes the Chinese remainder theorem state used by
+	 * {@link #modPow(BigInteger, BigInteger)} and
+	 * {@link #root(BigInteger, BigInteger)} now rather than on first use.
+	 */
+	public void prepare() {
+		getCRT();
+	}
+
+	/**
+	 * Computes base^exponent (mod pq) using the Chinese remainder theorem,
+	 * reducing the exponent modulo p-1 and q-1. The base must be coprime to
+	 * pq, which holds for all group elements of the corresponding public key
+	 * and anything derived from them (unless it reveals the factorization).
+	 * Negative exponents are allowed.
+	 */
+	public BigInteger modPow(BigInteger base, BigInteger exponent) {
+		CRT crt = getCRT();
+		BigInteger x_p = base.modPow(exponent.mod(crt.p_minus_1), p);
+		BigInteger x_q = base.modPow(exponent.mod(crt.q_minus_1), q);
+		return crt.combine(x_p, x_q);
+	}
+
+	/**
+	 * Computes the unique e-th root of x modulo pq, for e coprime to
+	 * (p-1)(q-1), using the Chinese remainder theorem.
+	 */
+	public BigInteger root(BigInteger x, BigInteger e) {
+		CRT crt = getCRT();
+		return root(x, e.modInverse(crt.p_minus_1), e.modInverse(crt.q_minus_1));
+	}
+
+	/**
+	 * As {@link #root(BigInteger, BigInteger)}, given e^{-1} modulo p-1 and q-1.
+	 */
+	BigInteger root(BigInteger x, BigInteger e_inverse_p, BigInteger e_inverse_q) {
+		BigInteger x_p = x.modPow(e_inverse_p, p);
+		BigInteger x_q = x.modPow(e_inverse_q, q);
+		return getCRT().combine(x_p, x_q);
+	}
+
+	private CRT getCRT() {
+		if (crt == null)
+			crt = new CRT(p, q, p_prime.multiply(q_prime));
+		return crt;
+	}
+
+	private static class CRT {
+		final BigInteger p;
+		final BigInteger q;
+		final BigInteger p_minus_1;
+		final BigInteger q_minus_1;
+		final BigInteger p_inverse; // p^{-1} mod q
+		final BigInteger p_prime_q_prime;
+
+		CRT(BigInteger p, BigInteger q, BigInteger p_prime_q_prime) {
+			this.p = p;
+			this.q = q;
+			this.p_prime_q_prime = p_prime_q_prime;
+			this.p_minus_1 = p.subtract(BigInteger.ONE);
+			this.q_minus_1 = q.subtract(BigInteger.ONE);
+			this.p_inverse = p.modInverse(q);
+		}
+
+		/**
+		 * Returns the x in [0, pq) with x = x_p (mod p) and x = x_q (mod q)
+		 * (Garner's formula).
+		 */
+		BigInteger combine(BigInteger x_p, BigInteger x_q) {
+			BigInteger h = x_q.subtract(x_p).multiply(p_inverse).mod(q);
+			return x_p.add(h.multiply(p));
+		}
 	}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+
+/**
+ * A freshly issued signature together with the values from signing that the
+ * issuer needs again to prove its correctness (see
+ * {@link IdemixIssuer#proveSignature(IssuanceContext, BigInteger)}): Q = A^e,
+ * the inverse of e modulo the group order p'q', and that order. This saves
+ * recomputing them from the signature.
+ */
+public class IssuanceContext {
+	private final CLSignature signature;
+	private final BigInteger Q;
+	private final BigInteger group_modulus;
+	private final BigInteger e_inverse;
+
+	IssuanceContext(CLSignature signature, BigInteger Q, BigInteger group_modulus) {
+		this(signature, Q, group_modulus, signature.get_e().modInverse(group_modulus));
+	}
+
+	IssuanceContext(CLSignature signature, BigInteger Q, BigInteger group_modulus, BigInteger e_inverse) {
+		this.signature = signature;
+		this.Q = Q;
+		this.group_modulus = group_modulus;
+		this.e_inverse = e_inverse;
+	}
+
+	public CLSignature getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Returns Q = A^e (mod n).
+	 */
+	public BigInteger getQ() {
+		return Q;
+	}
+
+	public BigInteger get_e_inverse() {
+		return e_inverse;
+	}
+
+	/**
+	 * Returns the order p'q' of the group of quadratic residues modulo n.
+	 */
+	public BigInteger getGroupModulus() {
+		return group_modulus;
+	}
+}
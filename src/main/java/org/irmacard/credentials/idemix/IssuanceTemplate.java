@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.irmacard.credentials.idemix.util.Crypto;
+
+/**
+ * Attribute values that are the same for a batch of credentials, such as the
+ * metadata attribute or a fixed expiry date. The product of the corresponding
+ * R_i^{m_i} is computed once per modulus and set of generators, so that an
+ * issuer using this
+ * template (see {@link IdemixIssuer#setTemplate(IssuanceTemplate)}) only
+ * exponentiates the varying attributes of each credential.
+ * <p>
+ * Indices are positions in the attribute list that is passed to the issuer,
+ * i.e. index i is signed using generator R_{i+1} (R_0 is for the secret key).
+ */
+public class IssuanceTemplate {
+	private final SortedMap<Integer, BigInteger> fixed;
+	// Keyed by the modulus and the generators used, not by the key object, so
+	// that changing a generator of a key (see IdemixPublicKey#set_Ri) is noticed
+	private final Map<List<BigInteger>, BigInteger> products = new ConcurrentHashMap<>();
+
+	/**
+	 * @param fixed	the fixed attribute values, by index in the attribute list
+	 */
+	public IssuanceTemplate(Map<Integer, BigInteger> fixed) {
+		for (Integer i : fixed.keySet())
+			if (i < 0)
+				throw new IllegalArgumentException("Invalid attribute index " + i);
+		this.fixed = Collections.unmodifiableSortedMap(new TreeMap<>(fixed));
+	}
+
+	public SortedMap<Integer, BigInteger> getFixedAttributes() {
+		return fixed;
+	}
+
+	/**
+	 * Whether the given attributes have the values fixed by this template.
+	 */
+	public boolean matches(List<BigInteger> attrs) {
+		for (Entry<Integer, BigInteger> entry : fixed.entrySet())
+			if (entry.getKey() >= attrs.size() || !entry.getValue().equals(attrs.get(entry.getKey())))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns prod_{fixed i} R_{i+1}^{m_i} (mod n), computed on first use for
+	 * each combination of n and the generators R_{i+1} that the current
+	 * values of the public key have.
+	 */
+	public BigInteger getProduct(IdemixPublicKey pk) {
+		List<BigInteger> bases = new ArrayList<>(fixed.size());
+		for (Integer i : fixed.keySet())
+			bases.add(pk.getGeneratorR(i + 1));
+		List<BigInteger> key = new ArrayList<>(bases.size() + 1);
+		key.add(pk.getModulus());
+		key.addAll(bases);
+
+		BigInteger product = products.get(key);
+		if (product == null) {
+			product = Crypto.representToBases(pk.newMultiExp(), bases,
+					new ArrayList<>(fixed.values()), pk.getSystemParameters().get_l_m()).compute();
+			products.put(key, product);
+		}
+		return product;
+	}
+
+	/**
+	 * Returns the elements of the given list at the positions that this
+	 * template does not fix.
+	 */
+	<T> List<T> varying(List<T> list) {
+		List<T> result = new ArrayList<>(list.size());
+		for (int i = 0; i < list.size(); i++)
+			if (!fixed.containsKey(i))
+				result.add(list.get(i));
+		return result;
+	}
+}
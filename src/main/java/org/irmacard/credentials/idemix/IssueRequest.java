@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+
+/**
+ * The input of one issuance in a batch, see
+ * {@link IdemixIssuer#issueSignatures(List, java.util.concurrent.Executor)}:
+ * the arguments of {@link IdemixIssuer#issueSignature(IssueCommitmentMessage, List, int, BigInteger)}.
+ */
+public class IssueRequest {
+	private final IssueCommitmentMessage message;
+	private final List<BigInteger> attributes;
+	private final int index;
+	private final BigInteger nonce1;
+
+	public IssueRequest(IssueCommitmentMessage message, List<BigInteger> attributes, BigInteger nonce1) {
+		this(message, attributes, 0, nonce1);
+	}
+
+	/**
+	 * @param index	index of the ProofU in the combined proofs of the message
+	 */
+	public IssueRequest(IssueCommitmentMessage message, List<BigInteger> attributes, int index, BigInteger nonce1) {
+		this.message = message;
+		this.attributes = attributes;
+		this.index = index;
+		this.nonce1 = nonce1;
+	}
+
+	public IssueCommitmentMessage getMessage() {
+		return message;
+	}
+
+	public List<BigInteger> getAttributes() {
+		return attributes;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public BigInteger getNonce1() {
+		return nonce1;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.irmacard.credentials.idemix.util.Crypto;
+
+/**
+ * The commitment U = S^{v_prime} * R_0^{s} to the secret, together with
+ * the randomizers and commitment U_commit = S^{v_prime_commit} * R_0^{s_commit}
+ * of its proof of correctness, computed ahead of time. None of this depends
+ * on the issuer's nonce, so a receiver that prepares these (for example,
+ * a queue of them per public key) can answer the nonce with a few
+ * multiplications, see {@link CredentialBuilder#usePreparedCommitment(PreparedCommitment)}.
+ * <p>
+ * A prepared commitment can be used for one issuance only: using the same
+ * randomizers for two proofs would reveal the secret.
+ */
+public class PreparedCommitment {
+	private final IdemixPublicKey pk;
+	private final BigInteger secret;
+
+	private final BigInteger v_prime;
+	private final BigInteger U;
+
+	private final BigInteger v_prime_commit;
+	private final BigInteger s_commit;
+	private final BigInteger S_v_prime_commit; // S^{v_prime_commit}
+	private final BigInteger U_commit;
+
+	private final AtomicBoolean used = new AtomicBoolean(false);
+	private final AtomicBoolean randomizersUsed = new AtomicBoolean(false);
+
+	/**
+	 * Prepares a commitment to the given secret under the given public key.
+	 */
+	public PreparedCommitment(IdemixPublicKey pk, BigInteger secret) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		this.pk = pk;
+		this.secret = secret;
+
+		// As in CredentialBuilder.commitmentToSecret()
+		v_prime = Crypto.randomUnsignedInteger(params.get_l_v_prime());
+		U = pk.newMultiExp()
+				.add(pk.getGeneratorS(), v_prime)
+				.add(pk.getGeneratorR(0), secret)
+				.compute();
+
+		// As in ProofUBuilder
+		v_prime_commit = Crypto.randomUnsignedInteger(params.get_l_v_prime_commit());
+		s_commit = Crypto.randomUnsignedInteger(params.get_l_s_commit());
+		S_v_prime_commit = pk.modPowS(v_prime_commit);
+		U_commit = S_v_prime_commit.multiply(pk.modPowR(0, s_commit)).mod(pk.getModulus());
+	}
+
+	/**
+	 * Whether this commitment can be used for the given public key and secret.
+	 */
+	public boolean isFor(IdemixPublicKey pk, BigInteger secret) {
+		return this.secret.equals(secret)
+				&& this.pk.getModulus().equals(pk.getModulus())
+				&& this.pk.getGeneratorS().equals(pk.getGeneratorS())
+				&& this.pk.getGeneratorR(0).equals(pk.getGeneratorR(0));
+	}
+
+	/**
+	 * Marks this commitment as used.
+	 * @throws IllegalStateException if it was used before
+	 */
+	void claim() {
+		if (!used.compareAndSet(false, true))
+			throw new IllegalStateException("Prepared commitment has already been used");
+	}
+
+	/**
+	 * Marks the randomizers as used by a proof. Returns false if they were
+	 * used before, in which case the caller must generate fresh ones.
+	 */
+	public boolean claimRandomizers() {
+		return randomizersUsed.compareAndSet(false, true);
+	}
+
+	public boolean isUsed() {
+		return used.get();
+	}
+
+	public BigInteger get_v_prime() {
+		return v_prime;
+	}
+
+	public BigInteger getU() {
+		return U;
+	}
+
+	public BigInteger get_v_prime_commit() {
+		return v_prime_commit;
+	}
+
+	public BigInteger get_s_commit() {
+		return s_commit;
+	}
+
+	/**
+	 * Returns U_commit for the given s_commit, which is only different from
+	 * {@link #get_s_commit()} if it was fixed by a {@link org.irmacard.credentials.idemix.proofs.ProofListBuilder}.
+	 */
+	public BigInteger getU_commit(BigInteger s_commit) {
+		if (s_commit.equals(this.s_commit))
+			return U_commit;
+		return S_v_prime_commit.multiply(pk.modPowR(0, s_commit)).mod(pk.getModulus());
+	}
+}
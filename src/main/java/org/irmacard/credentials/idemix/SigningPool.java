@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.PrimePool;
+
+/**
+ * A pool of the parts of a CL signature that do not depend on the commitment
+ * and attributes being signed: v, S^v, the prime e, and the inverses of e
+ * needed for A = Q^{1/e} and for the proof of correctness. It is kept filled
+ * by background threads (see {@link BackgroundPool}), so that signing only has
+ * to compute the product over the attributes, one inversion and the
+ * e-th root.
+ * <p>
+ * A pool belongs to one issuer key pair. Every entry is handed out at most
+ * once: two signatures sharing e (or v) would allow forging new ones. When
+ * the pool is empty, {@link #next()} computes an entry on the calling thread.
+ *
+ * @see IdemixIssuer#setSigningPool(SigningPool)
+ */
+public class SigningPool {
+	private final IdemixPublicKey pk;
+	private final BackgroundPool<Entry> entries;
+
+	/**
+	 * The request-independent values for one signature.
+	 */
+	static final class Entry {
+		final BigInteger v;
+		final BigInteger S_v; // S^v (mod n)
+		final BigInteger e;
+		final BigInteger e_inverse_p; // e^{-1} (mod p-1)
+		final BigInteger e_inverse_q; // e^{-1} (mod q-1)
+		final BigInteger e_inverse; // e^{-1} (mod p'q')
+
+		/**
+		 * @param primes	pool to take e from, may be null
+		 */
+		Entry(IdemixSecretKey sk, IdemixPublicKey pk, PrimePool primes) {
+			IdemixSystemParameters params = pk.getSystemParameters();
+			SecureRandom rnd = new SecureRandom();
+
+			BigInteger v_tilde = new BigInteger(params.get_l_v() - 1, rnd);
+			BigInteger two_l_v = new BigInteger("2").pow(params.get_l_v() - 1);
+			v = two_l_v.add(v_tilde);
+			S_v = sk.modPow(pk.getGeneratorS(), v);
+
+			if (primes != null && primes.isFor(params.get_l_e() - 1, params.get_l_e_prime() - 1))
+				e = primes.next();
+			else
+				e = Crypto.probablyPrimeInBitRange(params.get_l_e() - 1, params.get_l_e_prime() - 1);
+
+			e_inverse_p = e.modInverse(sk.get_p().subtract(BigInteger.ONE));
+			e_inverse_q = e.modInverse(sk.get_q().subtract(BigInteger.ONE));
+			e_inverse = e.modInverse(sk.get_p_prime_q_prime());
+		}
+	}
+
+	/**
+	 * @param sk			the issuer's secret key
+	 * @param pk			the corresponding public key
+	 * @param capacity		maximum number of entries in the pool
+	 * @param lowWatermark	refill when fewer than this many entries are left
+	 * @param threads		number of background threads
+	 */
+	public SigningPool(final IdemixSecretKey sk, final IdemixPublicKey pk, int capacity, int lowWatermark, int threads) {
+		this.pk = pk;
+		this.entries = new BackgroundPool<Entry>(capacity, lowWatermark, threads, "irma-signing-pool") {
+			@Override
+			protected Entry generate() {
+				return new Entry(sk, pk, null);
+			}
+		};
+		this.entries.start();
+	}
+
+	/**
+	 * Returns an entry that has not been handed out before: from the pool if
+	 * possible, otherwise freshly computed on this thread.
+	 */
+	Entry next() {
+		return entries.next();
+	}
+
+	/**
+	 * Whether this pool contains entries for the given public key.
+	 */
+	public boolean isFor(IdemixPublicKey pk) {
+		return this.pk.getModulus().equals(pk.getModulus())
+				&& this.pk.getGeneratorS().equals(pk.getGeneratorS());
+	}
+
+	/**
+	 * Stops the background threads. Entries that are still in the pool can be
+	 * taken, after that they are computed inline.
+	 */
+	public void shutdown() {
+		entries.shutdown();
+	}
+
+	/** Number of entries currently in the pool. */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Number of calls to {@link #next()} that were served from the pool. */
+	public long getHits() {
+		return entries.getHits();
+	}
+
+	/** Number of calls to {@link #next()} that had to compute an entry inline. */
+	public long getMisses() {
+		return entries.getMisses();
+	}
+
+	/** Number of entries computed by the background threads. */
+	public long getGenerated() {
+		return entries.getGenerated();
+	}
+}
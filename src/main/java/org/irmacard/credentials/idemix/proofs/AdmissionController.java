@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+import org.irmacard.credentials.info.KeyException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the verification work that each client can cause, as estimated by {@link VerificationCost}. Every
+ * client has a budget that is replenished at a fixed rate up to a maximum (a token bucket); a request is
+ * admitted only if its estimated cost fits in the remaining budget of its client, which it then uses up.
+ * A request that costs more than the maximum budget is never admitted.
+ * <p>
+ * A client whose budget is full again is the same as a new one, so it is forgotten. This happens whenever the
+ * number of known clients has doubled since the last time, so that the memory used is proportional to the number
+ * of clients that used part of their budget recently (within the time it takes to replenish a full budget),
+ * however many different clients there are.
+ */
+public class AdmissionController {
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	// Never look for idle clients while there are fewer than this many
+	private static final int MINIMUM_SWEEP = 1024;
+
+	private final long budgetPerSecond;
+	private final long maximumBudget;
+
+	private final ConcurrentHashMap<String, Budget> budgets = new ConcurrentHashMap<>();
+	// Number of clients at which the idle ones are forgotten next, or MAX_VALUE while that is being done
+	private final AtomicInteger sweepAt = new AtomicInteger(MINIMUM_SWEEP);
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+
+	/**
+	 * @param budgetPerSecond	cost per second that each client may use on average
+	 * @param maximumBudget		largest amount of unused budget that a client can accumulate, and with which
+	 *                       	a new client starts
+	 */
+	public AdmissionController(long budgetPerSecond, long maximumBudget) {
+		if (budgetPerSecond < 1 || maximumBudget < 1)
+			throw new IllegalArgumentException("Invalid admission budget");
+
+		this.budgetPerSecond = budgetPerSecond;
+		this.maximumBudget = maximumBudget;
+	}
+
+	/**
+	 * Admits the request of the client if its cost fits in the budget of the client, and if so uses up
+	 * that part of the budget.
+	 */
+	public boolean admit(String client, long cost) {
+		if (cost > maximumBudget) {
+			// Never fits, so there is no need to remember the client
+			refused.incrementAndGet();
+			return false;
+		}
+
+		Budget budget = budgets.get(client);
+		if (budget == null) {
+			budget = new Budget(maximumBudget);
+			Budget existing = budgets.putIfAbsent(client, budget);
+			if (existing != null)
+				budget = existing;
+			else if (budgets.size() >= sweepAt.get())
+				sweep();
+		}
+
+		if (budget.take(cost)) {
+			admitted.incrementAndGet();
+			return true;
+		}
+
+		refused.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Admits the verification of the proofs if it fits in the budget of the client. The proofs are refused
+	 * if the public key of one of them cannot be determined, as they would not verify anyway.
+	 */
+	public boolean admit(String client, ProofList proofs) {
+		try {
+			return admit(client, VerificationCost.estimate(proofs));
+		} catch (KeyException e) {
+			refused.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Admits the verification of the commitment proofs of the message if it fits in the budget of the client.
+	 * The message is refused if the public key of one of its disclosure proofs cannot be determined.
+	 */
+	public boolean admit(String client, IssueCommitmentMessage msg, IdemixPublicKey pk) {
+		try {
+			return admit(client, VerificationCost.estimate(msg, pk));
+		} catch (KeyException e) {
+			refused.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * The budget that the client currently has left.
+	 */
+	public long getBudget(String client) {
+		Budget budget = budgets.get(client);
+		return budget == null ? maximumBudget : budget.available();
+	}
+
+	/**
+	 * Forgets the clients whose budget is full again, as these are the same as new clients.
+	 */
+	public void removeIdleClients() {
+		Iterator<Map.Entry<String, Budget>> it = budgets.entrySet().iterator();
+		while (it.hasNext())
+			if (it.next().getValue().available() >= maximumBudget)
+				it.remove();
+	}
+
+	/**
+	 * Forgets the idle clients if no other thread is doing so, and decides when to do so next.
+	 */
+	private void sweep() {
+		int at = sweepAt.get();
+		if (budgets.size() < at || !sweepAt.compareAndSet(at, Integer.MAX_VALUE))
+			return;
+
+		try {
+			removeIdleClients();
+		} finally {
+			sweepAt.set(Math.max(MINIMUM_SWEEP, 2 * budgets.size()));
+		}
+	}
+
+	public int getClientCount() {
+		return budgets.size();
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	public long getRefused() {
+		return refused.get();
+	}
+
+	private class Budget {
+		private long available;
+		private long updated = System.nanoTime();
+
+		Budget(long available) {
+			this.available = available;
+		}
+
+		synchronized boolean take(long cost) {
+			refill();
+			if (cost > available)
+				return false;
+			available -= cost;
+			return true;
+		}
+
+		synchronized long available() {
+			refill();
+			return available;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			long elapsed = now - updated;
+			double added = Math.floor(elapsed * (double) budgetPerSecond / NANOS_PER_SECOND);
+			if (added < 1)
+				return; // Keep accumulating time until at least one unit is added
+
+			if (added >= maximumBudget - available) {
+				available = maximumBudget;
+				updated = now;
+			} else {
+				// Advance the clock only by the time that was actually converted into budget
+				available += (long) added;
+				updated += (long) (added * NANOS_PER_SECOND / budgetPerSecond);
+			}
+		}
+	}
+}
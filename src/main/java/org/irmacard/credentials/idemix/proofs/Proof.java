@@ -31,6 +31,7 @@
 package org.irmacard.credentials.idemix.proofs;
 
 import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.info.KeyException;
 
 import java.math.BigInteger;
@@ -54,12 +55,42 @@ public interface Proof {
 	 */
 	boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce, BigInteger challenge);
 
+	/**
+	 * Checks the structure of this proof before doing any exponentiation: that all fields are present, that
+	 * the group elements are in [1, n) and that the exponents are not larger than an honest prover would
+	 * produce. This is cheap, so that malformed or deliberately oversized proofs are rejected quickly.
+	 * @return True if well-formed, false otherwise
+	 */
+	boolean isWellFormed(IdemixPublicKey pk);
+
 	/**
 	 * Returns integers that should be included in the hash when calculating the challenge during verification.
 	 * @param pk The public key this {@link Proof} is being verified against
 	 */
 	List<BigInteger> getChallengeContribution(IdemixPublicKey pk);
 
+	/**
+	 * Adds the elements that {@link #getChallengeContribution(IdemixPublicKey)} would invert to the batch,
+	 * so that they can be inverted together with those of other proofs.
+	 * @param pk The public key this {@link Proof} is being verified against
+	 * @param inverses Batch of inverses modulo the modulus of pk
+	 */
+	void addInversions(IdemixPublicKey pk, BatchInverse inverses);
+
+	/**
+	 * As {@link #getChallengeContribution(IdemixPublicKey)}, taking the inverses from the given batch
+	 * (see {@link #addInversions(IdemixPublicKey, BatchInverse)}).
+	 * @param inverses Inverted batch modulo the modulus of pk, may be null
+	 */
+	List<BigInteger> getChallengeContribution(IdemixPublicKey pk, BatchInverse inverses);
+
+	/**
+	 * Estimates the cost of verifying this proof, from the sizes of its exponents, without verifying it.
+	 * @param pk The public key this {@link Proof} is being verified against
+	 * @return The cost in the unit of {@link VerificationCost}
+	 */
+	long estimateCost(IdemixPublicKey pk);
+
 	/**
 	 * Returns the public key against which the proof should verify.
 	 * @return The {@link IdemixPublicKey}, or null if it could not be determined from this proof
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import java.math.BigInteger;
+
+/**
+ * Structural checks on the fields of proofs, used by {@link Proof#isWellFormed(IdemixPublicKey)}. These only
+ * look at signs and bit lengths, so that they take microseconds even on absurdly large inputs.
+ */
+final class ProofChecks {
+	private ProofChecks() {
+	}
+
+	/**
+	 * Checks that x is present and |x| < 2^bits, printing a message otherwise.
+	 */
+	static boolean inRange(BigInteger x, int bits, String name) {
+		if (x == null) {
+			System.out.println("Missing " + name);
+			return false;
+		}
+		// bitLength() of a negative x is that of |x| - 1, so only |x| = 2^bits needs a closer look
+		if (x.bitLength() > bits || (x.signum() < 0 && x.negate().bitLength() > bits)) {
+			System.out.println("Size of " + name + " outside of range");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that x is present and 0 <= x < 2^bits, printing a message otherwise.
+	 */
+	static boolean inUnsignedRange(BigInteger x, int bits, String name) {
+		if (x != null && x.signum() < 0) {
+			System.out.println("Negative " + name);
+			return false;
+		}
+		return inRange(x, bits, name);
+	}
+
+	/**
+	 * Checks that x is present and in [1, n), printing a message otherwise.
+	 */
+	static boolean inGroup(BigInteger x, BigInteger n, String name) {
+		if (x == null) {
+			System.out.println("Missing " + name);
+			return false;
+		}
+		if (x.signum() <= 0 || x.compareTo(n) >= 0) {
+			System.out.println(name + " not in [1, n)");
+			return false;
+		}
+		return true;
+	}
+}
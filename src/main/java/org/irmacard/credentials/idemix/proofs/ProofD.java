@@ -34,14 +34,18 @@ import org.irmacard.credentials.Attributes;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.MultiExp;
 import org.irmacard.credentials.info.CredentialIdentifier;
 import org.irmacard.credentials.info.KeyException;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 @SuppressWarnings("unused")
@@ -73,7 +77,7 @@ public class ProofD implements Proof {
 	}
 
 	public boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce1, BigInteger challenge) {
-		if(!checkSizeResponses(pk)) {
+		if (!isWellFormed(pk)) {
 			return false;
 		}
 
@@ -94,14 +98,58 @@ public class ProofD implements Proof {
 
 	@Override
 	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk) {
-		return Arrays.asList(A, reconstructZ(pk));
+		return getChallengeContribution(pk, null);
+	}
+
+	@Override
+	public void addInversions(IdemixPublicKey pk, BatchInverse inverses) {
+		// A prepared key raises Z to the power -c using its inverse table
+		if (!pk.isPrepared())
+			inverses.add(pk.getGeneratorZ());
+	}
+
+	@Override
+	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk, BatchInverse inverses) {
+		return Arrays.asList(A, reconstructZ(pk, inverses));
+	}
+
+	@Override
+	public long estimateCost(IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		int c_bits = VerificationCost.bits(c);
+
+		// The exponents of reconstructZ. This runs before isWellFormed(), so missing fields cost nothing.
+		Map<Integer, BigInteger> disclosed = a_disclosed != null ? a_disclosed : Collections.<Integer, BigInteger>emptyMap();
+		Map<Integer, BigInteger> responses = a_responses != null ? a_responses : Collections.<Integer, BigInteger>emptyMap();
+		int[] bits = new int[3 + disclosed.size() + responses.size()];
+		int i = 0;
+		bits[i++] = c_bits;
+		bits[i++] = Math.max(VerificationCost.bits(e_response), c_bits + params.get_l_e() - 1) + 1;
+		bits[i++] = VerificationCost.bits(v_response);
+		for (BigInteger attribute : disclosed.values())
+			bits[i++] = c_bits + Math.min(VerificationCost.bits(attribute), params.get_l_m());
+		for (BigInteger response : responses.values())
+			bits[i++] = VerificationCost.bits(response);
+
+		return VerificationCost.multiExp(pk, bits);
 	}
 
 	@Override
 	public IdemixPublicKey extractPublicKey() throws KeyException {
-		Attributes attrs = new Attributes(get_a_disclosed());
+		if (a_disclosed == null || a_disclosed.get(1) == null)
+			throw new KeyException("Proof does not disclose a metadata attribute");
+
+		CredentialIdentifier id;
+		Attributes attrs;
+		try {
+			attrs = new Attributes(a_disclosed);
+			id = attrs.getCredentialIdentifier();
+		} catch (IllegalArgumentException e) {
+			throw new KeyException("Invalid metadata attribute: " + e.getMessage());
+		}
+		if (id == null)
+			throw new KeyException("Unknown credential type in metadata attribute");
 
-		CredentialIdentifier id = attrs.getCredentialIdentifier();
 		return IdemixKeyStore.getInstance().getPublicKey(id.getIssuerIdentifier(), attrs.getKeyCounter());
 	}
 
@@ -110,62 +158,76 @@ public class ProofD implements Proof {
 		return get_a_responses().get(0);
 	}
 
-	private boolean checkSizeResponses(IdemixPublicKey pk) {
+	@Override
+	public boolean isWellFormed(IdemixPublicKey pk) {
 		IdemixSystemParameters params = pk.getSystemParameters();
 
-		// Check range on the a_responses
-		BigInteger maximum = Crypto.TWO.pow(params.get_l_m_commit() + 1).subtract(BigInteger.ONE);
-		BigInteger minimum = maximum.negate();
-		for(BigInteger a_response : a_responses.values()) {
-			if(a_response.compareTo(minimum) < 0 ||
-					a_response.compareTo(maximum) > 0) {
-				System.out.println("Size of a_response outside of range");
+		if (!ProofChecks.inUnsignedRange(c, params.get_l_h(), "c")
+				|| !ProofChecks.inGroup(A, pk.getModulus(), "A")
+				|| !ProofChecks.inRange(e_response, params.get_l_e_commit() + 1, "e_response")
+				|| !ProofChecks.inRange(v_response, params.get_l_v_commit() + 2, "v_response"))
+			return false;
+
+		if (a_responses == null || a_disclosed == null || !a_responses.containsKey(0)) {
+			System.out.println("Missing attribute responses");
+			return false;
+		}
+
+		// Every attribute index must have a generator, and be either disclosed or not
+		int count = pk.getGeneratorsR().size();
+		for (Entry<Integer, BigInteger> entry : a_responses.entrySet()) {
+			Integer i = entry.getKey();
+			if (i == null || i < 0 || i >= count || a_disclosed.containsKey(i)) {
+				System.out.println("Invalid attribute index " + i);
 				return false;
 			}
+			if (!ProofChecks.inRange(entry.getValue(), params.get_l_m_commit() + 1, "a_response"))
+				return false;
 		}
-
-		// Check range e_response
-		maximum = Crypto.TWO.pow(params.get_l_e_commit() + 1).subtract(BigInteger.ONE);
-		minimum = maximum.negate();
-		if(e_response.compareTo(minimum) < 0 ||
-				e_response.compareTo(maximum) > 0) {
-			System.out.println("Size of e_response outside of range");
-			return false;
+		for (Entry<Integer, BigInteger> entry : a_disclosed.entrySet()) {
+			Integer i = entry.getKey();
+			if (i == null || i < 0 || i >= count) {
+				System.out.println("Invalid attribute index " + i);
+				return false;
+			}
+			// Attributes longer than l_m are hashed, so their size does not matter for the exponentiation
+			if (entry.getValue() == null || entry.getValue().signum() < 0) {
+				System.out.println("Invalid disclosed attribute " + i);
+				return false;
+			}
 		}
 
 		return true;
 	}
 
 	public BigInteger reconstructZ(IdemixPublicKey pk) {
+		return reconstructZ(pk, null);
+	}
+
+	private BigInteger reconstructZ(IdemixPublicKey pk, BatchInverse inverses) {
 		IdemixSystemParameters params = pk.getSystemParameters();
-		BigInteger n = pk.getModulus();
 
-		// known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} )
-		BigInteger numerator = A.modPow(Crypto.TWO.pow(params.get_l_e() - 1), n);
+		// Z' = known^{-c} * A^{e_response} * S^{v_response} * prod_{undisclosed} R_i^{a_response_i},
+		// with known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} ). Expanding known gives
+		// Z' = Z^{-c} * A^{e_response + c*2^{l_e - 1}} * S^{v_response}
+		//      * prod_{disclosed} R_i^{c*a_i} * prod_{undisclosed} R_i^{a_response_i},
+		// which we compute as a single multi-exponentiation. Only Z^{-c} needs an inversion, and not even
+		// that if the key is prepared (the fixed-base tables contain the inverse powers).
+		MultiExp Z = pk.newMultiExp().useInverses(inverses);
+		Z.add(pk.getGeneratorZ(), c.negate());
+		Z.add(A, e_response.add(c.shiftLeft(params.get_l_e() - 1)));
+		Z.add(pk.getGeneratorS(), v_response);
 		for(Entry<Integer, BigInteger> entry : a_disclosed.entrySet()) {
-			Integer idx = entry.getKey();
 			BigInteger attribute = entry.getValue();
 			if (attribute.bitLength() > params.get_l_m())
 				attribute = Crypto.sha256Hash(attribute.toByteArray());
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(attribute, n);
-			numerator = numerator.multiply(tmp).mod(n);
+			Z.add(pk.getGeneratorR(entry.getKey()), c.multiply(attribute));
 		}
-		BigInteger known = pk.getGeneratorZ().multiply(numerator.modInverse(n));
-		BigInteger known_c = known.modPow(c.negate(), n);
-
-		BigInteger Ae = A.modPow(e_response, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(v_response, n);
-		BigInteger Rs = BigInteger.ONE;
 		for(Entry<Integer, BigInteger> entry : a_responses.entrySet()) {
-			Integer idx = entry.getKey();
-			BigInteger response = entry.getValue();
-
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(response, n);
-			Rs = Rs.multiply(tmp).mod(n);
+			Z.add(pk.getGeneratorR(entry.getKey()), entry.getValue());
 		}
 
-		// Return Z
-		return known_c.multiply(Ae).multiply(Rs).multiply(Sv).mod(n);
+		return Z.compute();
 	}
 
 	public BigInteger get_c() {
@@ -35,6 +35,7 @@ import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.MultiExp;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -52,6 +53,8 @@ public class ProofDBuilder extends ProofBuilder {
 		private BigInteger v_randomizer;
 		private HashMap<Integer, BigInteger> a_randomizers;
 		private CLSignature rand_sig;
+		private ProofDPool.Precomputation precomputed; // null if not taken from a pool
+		private Set<Integer> pooled; // indices of the randomizers that come from precomputed
 	}
 
 	class ProofDCommitments extends Commitments {
@@ -88,6 +91,11 @@ public class ProofDBuilder extends ProofBuilder {
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
+		ProofDPool pool = credential.getProofDPool();
+		ProofDPool.Precomputation precomputed = pool == null ? null : pool.poll();
+		if (precomputed != null)
+			return useRandomizers(precomputed, fixed);
+
 		SecureRandom rnd = new SecureRandom();
 		ProofDRandomizers rand = new ProofDRandomizers();
 
@@ -111,22 +119,53 @@ public class ProofDBuilder extends ProofBuilder {
 		return this;
 	}
 
+	private ProofBuilder useRandomizers(ProofDPool.Precomputation precomputed, Map<String, BigInteger> fixed) {
+		ProofDRandomizers rand = new ProofDRandomizers();
+		rand.precomputed = precomputed;
+		rand.e_randomizer = precomputed.e_randomizer;
+		rand.v_randomizer = precomputed.v_randomizer;
+		rand.rand_sig = precomputed.rand_sig;
+
+		rand.a_randomizers = new HashMap<>();
+		rand.pooled = new HashSet<>();
+		for(Integer i : undisclosed_attributes) {
+			rand.a_randomizers.put(i, precomputed.a_randomizers[i]);
+			rand.pooled.add(i);
+		}
+
+		// Randomizers fixed by the caller are not in the precomputation
+		if(fixed.containsKey(USER_SECRET_KEY)) {
+			rand.a_randomizers.put(0, fixed.get(USER_SECRET_KEY));
+			rand.pooled.remove(0);
+		}
+
+		this.rand = rand;
+		return this;
+	}
+
 	@Override
 	public ProofDCommitments calculateCommitments() {
 		ProofDCommitments coms = new ProofDCommitments(credential.getPublicKey());
 
 		IdemixPublicKey issuer_pk = credential.getPublicKey();
-		BigInteger n = issuer_pk.getModulus();
 
 		// Z = A^{e_commit} * S^{v_commit}
 		//     PROD_{i \in undisclosed} ( R_i^{a_commits{i}} )
-		BigInteger Ae = rand.rand_sig.getA().modPow(rand.e_randomizer, n);
-		BigInteger Sv = issuer_pk.getGeneratorS().modPow(rand.v_randomizer, n);
-		coms.Z = Ae.multiply(Sv).mod(n);
+		MultiExp Z = issuer_pk.newMultiExp();
+		ProofDPool.Precomputation pre = rand.precomputed;
+		if (pre == null) {
+			Z.add(rand.rand_sig.getA(), rand.e_randomizer);
+			Z.add(issuer_pk.getGeneratorS(), rand.v_randomizer);
+		} else {
+			Z.multiply(pre.AeSv);
+		}
 		for(Integer i : undisclosed_attributes) {
-			coms.Z = coms.Z.multiply(issuer_pk.getGeneratorR(i).
-					modPow(rand.a_randomizers.get(i), n)).mod(n);
+			if (pre != null && rand.pooled.contains(i))
+				Z.multiply(pre.R_powers[i]);
+			else
+				Z.add(issuer_pk.getGeneratorR(i), rand.a_randomizers.get(i));
 		}
+		coms.Z = Z.compute();
 
 		coms.A = rand.rand_sig.getA();
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.CLSignature;
+import org.irmacard.credentials.idemix.IdemixCredential;
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+
+/**
+ * A pool of precomputed randomizers and commitments for disclosure proofs of
+ * one credential. None of the exponentiations of a {@link ProofDBuilder}
+ * depend on the context or nonce: a precomputation contains a randomized
+ * signature, the randomizers, A^{e_randomizer} * S^{v_randomizer}, and
+ * R_i^{a_randomizer_i} for every attribute i. A builder that takes one
+ * computes its commitment with one multiplication per undisclosed attribute,
+ * except for the secret key when its randomizer is fixed by a
+ * {@link ProofListBuilder} (then R_0 is exponentiated as usual).
+ * <p>
+ * Every precomputation is handed out at most once, as reusing randomizers
+ * would leak the attributes. Fill the pool using {@link #fill()} while the
+ * application is idle, or pass an executor to have it refilled in the
+ * background whenever it drops below the low watermark. When the pool is
+ * empty, the builder computes everything itself.
+ *
+ * @see IdemixCredential#setProofDPool(ProofDPool)
+ */
+public class ProofDPool extends BackgroundPool<ProofDPool.Precomputation> {
+	private final IdemixCredential credential;
+
+	/**
+	 * Precomputed values for one disclosure proof.
+	 */
+	public static final class Precomputation {
+		final CLSignature rand_sig;
+		final BigInteger e_randomizer;
+		final BigInteger v_randomizer;
+		final BigInteger[] a_randomizers;
+		final BigInteger AeSv; // A^{e_randomizer} * S^{v_randomizer}
+		final BigInteger[] R_powers; // R_i^{a_randomizers[i]}
+
+		private Precomputation(IdemixCredential credential) {
+			SecureRandom rnd = new SecureRandom();
+			IdemixPublicKey pk = credential.getPublicKey();
+			IdemixSystemParameters params = pk.getSystemParameters();
+
+			e_randomizer = new BigInteger(params.get_l_e_commit(), rnd);
+			v_randomizer = new BigInteger(params.get_l_v_commit(), rnd);
+			a_randomizers = new BigInteger[credential.getNrAttributes()];
+			R_powers = new BigInteger[credential.getNrAttributes()];
+			for (int i = 0; i < a_randomizers.length; i++) {
+				a_randomizers[i] = new BigInteger(params.get_l_m_commit(), rnd);
+				R_powers[i] = pk.modPowR(i, a_randomizers[i]);
+			}
+
+			rand_sig = credential.getSignature().randomize(pk);
+			AeSv = pk.newMultiExp()
+					.add(rand_sig.getA(), e_randomizer)
+					.add(pk.getGeneratorS(), v_randomizer)
+					.compute();
+		}
+	}
+
+	/**
+	 * @param credential	the credential to precompute disclosure proofs for
+	 * @param capacity		maximum number of precomputations in the pool
+	 * @param lowWatermark	refill when fewer than this many are left (if there is an executor)
+	 * @param executor		executor for background refills, may be null
+	 */
+	public ProofDPool(IdemixCredential credential, int capacity, int lowWatermark, Executor executor) {
+		super(capacity, lowWatermark, executor);
+		this.credential = credential;
+		start();
+	}
+
+	public IdemixCredential getCredential() {
+		return credential;
+	}
+
+	@Override
+	protected Precomputation generate() {
+		return new Precomputation(credential);
+	}
+}
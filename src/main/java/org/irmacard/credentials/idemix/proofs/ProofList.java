@@ -33,7 +33,10 @@ package org.irmacard.credentials.idemix.proofs;
 import org.irmacard.credentials.Attributes;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.CryptoExecutors;
+import org.irmacard.credentials.idemix.util.CryptoTask;
 import org.irmacard.credentials.info.AttributeIdentifier;
 import org.irmacard.credentials.info.CredentialIdentifier;
 import org.irmacard.credentials.info.KeyException;
@@ -41,6 +44,13 @@ import org.irmacard.credentials.info.SchemeManager;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * <p>A collection of proofs of knowledge, for one or more disclosure proofs, or for the commitment to the private key
@@ -92,6 +102,35 @@ public class ProofList extends ArrayList<Proof> {
 			publicKeys.add(proof.extractPublicKey());
 	}
 
+	/**
+	 * Checks the structure of all contained proofs against their public keys (see
+	 * {@link Proof#isWellFormed(IdemixPublicKey)}), without doing any exponentiation. This is also done
+	 * by {@link #verify(BigInteger, BigInteger, boolean)} before anything else.
+	 * @return false if a proof is malformed or has no public key
+	 */
+	public boolean isWellFormed() {
+		return isWellFormed(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * As {@link #isWellFormed()}, also requiring that there are at most maxProofs proofs.
+	 */
+	public boolean isWellFormed(int maxProofs) {
+		if (size() > maxProofs) {
+			System.out.println("Too many proofs: " + size());
+			return false;
+		}
+		if (publicKeys == null || size() != publicKeys.size())
+			return false;
+
+		for (int i = 0; i < size(); ++i) {
+			if (get(i) == null || publicKeys.get(i) == null || !get(i).isWellFormed(publicKeys.get(i)))
+				return false;
+		}
+
+		return true;
+	}
+
 	/**
 	 * Checks if the contained proofs are cryptographically bound with respect to the specified context and nonce.
 	 */
@@ -99,11 +138,28 @@ public class ProofList extends ArrayList<Proof> {
 		if (size() == 0)
 			return true; // All proofs (i.e. none) are bound to all other proofs (i.e. none)
 
-		BigInteger challenge = reconstructChallenge(context, nonce);
+		return sharesChallenge()
+				&& isBound(reconstructChallenge(context, nonce, challengeContributions(null, false, context, nonce)));
+	}
+
+	/**
+	 * Checks if the proofs, which must share their challenge (see {@link #sharesChallenge()}), use the given
+	 * (reconstructed) challenge.
+	 */
+	private boolean isBound(BigInteger challenge) {
+		return challenge.equals(get(0).get_c());
+	}
+
+	/**
+	 * Checks if all proofs have the same challenge and if their secret key responses match, i.e. if they can
+	 * be bound at all. This needs no exponentiation.
+	 */
+	private boolean sharesChallenge() {
 		HashMap<String, BigInteger> responses = new HashMap<>();
+		BigInteger c = get(0).get_c();
 
 		for (int i=0; i < size(); ++i) {
-			if (!challenge.equals(get(i).get_c()))
+			if (c == null || !c.equals(get(i).get_c()))
 				return false;
 
 			// If the secret key comes from a credential whose scheme manager has a keyshare server,
@@ -131,39 +187,175 @@ public class ProofList extends ArrayList<Proof> {
 	 * @throws RuntimeException if the collection contains no proofs
 	 */
 	public boolean verify(BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+		return verify(context, nonce, shouldBeBound, null);
+	}
+
+	/**
+	 * As {@link #verify(BigInteger, BigInteger, boolean)}, but reconstructs the proofs in parallel on the given
+	 * executor (if it is not null). Proofs that the executor rejects are reconstructed on the calling thread.
+	 * <p>
+	 * The expensive part of verifying a proof is reconstructing its commitment (its challenge contribution).
+	 * This is done exactly once per proof. The bound challenge, and if the proofs are not bound the challenges
+	 * of the individual proofs, are all computed from these contributions. Whether the proofs can be bound is
+	 * known beforehand, from their challenges and secret key responses. If they cannot, each proof is checked
+	 * against its own challenge as soon as its contribution is known, and the first one that fails (or throws)
+	 * cancels the reconstructions that have not started yet.
+	 */
+	public boolean verify(BigInteger context, BigInteger nonce, boolean shouldBeBound, Executor executor) {
 		if (size() == 0)
 			return true;
 
 		if (publicKeys == null || (size() != publicKeys.size()))
 			throw new RuntimeException("No public keys to verify the proofs against");
+		for (int i=0; i < size(); ++i)
+			if (publicKeys.get(i) == null)
+				throw new RuntimeException("Missing public key for proof " + i + " of " + size());
 
-		boolean isBound = isBound(context, nonce);
-		if (shouldBeBound && !isBound) {
+		if (!isWellFormed())
+			return false;
+
+		boolean mayBeBound = sharesChallenge();
+		if (shouldBeBound && !mayBeBound) {
 			return false;
 		}
 
-		Proof proof;
-		IdemixPublicKey pk;
-		BigInteger challenge = null;
-		if (isBound)
-			challenge = reconstructChallenge(context, nonce);
+		// If the proofs cannot be bound, this already verifies each of them on its own
+		List<List<BigInteger>> contributions = challengeContributions(executor, !mayBeBound, context, nonce);
+		if (contributions == null)
+			return false;
+		if (!mayBeBound)
+			return true;
+
+		BigInteger challenge = reconstructChallenge(context, nonce, contributions);
+		boolean isBound = isBound(challenge);
+		if (shouldBeBound && !isBound) {
+			return false;
+		}
 
 		for (int i=0; i < size(); ++i) {
-			proof = get(i);
-			pk = publicKeys.get(i);
-			if (pk == null)
-				throw new RuntimeException("Missing public key for proof " + i + " of " + size());
+			BigInteger c = isBound ? challenge : standaloneChallenge(context, nonce, contributions.get(i));
+			if (!get(i).verify(publicKeys.get(i), context, nonce, c))
+				return false;
+		}
 
-			if (isBound) {
-				if (!proof.verify(pk, context, nonce, challenge))
-					return false;
-			} else {
-				if (!proof.verify(pk, context, nonce))
-					return false;
+		return true;
+	}
+
+	/**
+	 * The challenge that a proof with the given challenge contribution would have if it stood on its own.
+	 */
+	private static BigInteger standaloneChallenge(BigInteger context, BigInteger nonce,
+			List<BigInteger> contribution) {
+		List<BigInteger> toHash = new ArrayList<>(contribution.size() + 2);
+		toHash.add(context);
+		toHash.addAll(contribution);
+		toHash.add(nonce);
+		return Crypto.sha256Hash(Crypto.asn1Encode(toHash.toArray(new BigInteger[toHash.size()])));
+	}
+
+	/**
+	 * Verifies the i-th proof on its own, given its challenge contribution.
+	 */
+	private boolean verifyStandalone(int i, BigInteger context, BigInteger nonce, List<BigInteger> contribution) {
+		return get(i).verify(publicKeys.get(i), context, nonce, standaloneChallenge(context, nonce, contribution));
+	}
+
+	/**
+	 * As {@link #verify(BigInteger, BigInteger, boolean)}, but runs on the given executor (or the default one of
+	 * {@link CryptoExecutors} if it is null). The proofs are verified one after another within the task.
+	 */
+	public CryptoTask<Boolean> verifyAsync(final BigInteger context, final BigInteger nonce,
+			final boolean shouldBeBound, Executor executor) {
+		return CryptoTask.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return verify(context, nonce, shouldBeBound);
 			}
+		}, executor);
+	}
+
+	/**
+	 * Computes the challenge contributions of all proofs, on the executor if it is not null. A proof that the
+	 * executor rejects is handled on the calling thread. If verifyEach is set, each proof is also verified on
+	 * its own as soon as its contribution is known. As soon as one of them fails (then null is returned) or
+	 * throws an exception (which is rethrown), whichever proof that is, the ones that have not started yet
+	 * are cancelled; the ones that are already running cannot be interrupted, but finish in bounded time.
+	 * The inversions that the proofs need are first done in one batch per modulus.
+	 */
+	private List<List<BigInteger>> challengeContributions(Executor executor, boolean verifyEach,
+			BigInteger context, BigInteger nonce) {
+		HashMap<BigInteger, BatchInverse> inverses = new HashMap<>();
+		for (int i = 0; i < size(); ++i) {
+			BigInteger n = publicKeys.get(i).getModulus();
+			if (!inverses.containsKey(n))
+				inverses.put(n, new BatchInverse(n));
+			get(i).addInversions(publicKeys.get(i), inverses.get(n));
 		}
+		for (BatchInverse batch : inverses.values())
+			batch.invert();
 
-		return true;
+		List<Callable<List<BigInteger>>> tasks = new ArrayList<>(size());
+		for (int i = 0; i < size(); ++i) {
+			final Proof proof = get(i);
+			final IdemixPublicKey pk = publicKeys.get(i);
+			final BatchInverse batch = inverses.get(pk.getModulus());
+			tasks.add(new Callable<List<BigInteger>>() {
+				@Override
+				public List<BigInteger> call() {
+					return proof.getChallengeContribution(pk, batch);
+				}
+			});
+		}
+
+		List<List<BigInteger>> results = new ArrayList<>(Collections.<List<BigInteger>>nCopies(tasks.size(), null));
+		try {
+			if (executor == null) {
+				for (int i = 0; i < tasks.size(); ++i) {
+					results.set(i, tasks.get(i).call());
+					if (verifyEach && !verifyStandalone(i, context, nonce, results.get(i)))
+						return null;
+				}
+				return results;
+			}
+
+			// Take the results in order of completion, so that a failure is noticed as soon as it happens
+			CompletionService<List<BigInteger>> completion = new ExecutorCompletionService<>(executor);
+			HashMap<Future<List<BigInteger>>, Integer> pending = new HashMap<>();
+			try {
+				for (int i = 0; i < tasks.size(); ++i) {
+					try {
+						pending.put(completion.submit(tasks.get(i)), i);
+					} catch (RejectedExecutionException e) {
+						results.set(i, tasks.get(i).call());
+						if (verifyEach && !verifyStandalone(i, context, nonce, results.get(i)))
+							return null;
+					}
+				}
+
+				while (!pending.isEmpty()) {
+					Future<List<BigInteger>> future = completion.take();
+					int i = pending.remove(future);
+					results.set(i, future.get());
+					if (verifyEach && !verifyStandalone(i, context, nonce, results.get(i)))
+						return null;
+				}
+			} finally {
+				for (Future<List<BigInteger>> future : pending.keySet())
+					future.cancel(true);
+			}
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while verifying proofs", e);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public boolean isValid() {
@@ -242,17 +434,12 @@ public class ProofList extends ArrayList<Proof> {
 	 * When the instance contains only one disclosure proof, or only the proofU, this method thus returns what would
 	 * otherwise have been used as the challenge.</p>
 	 */
-	private BigInteger reconstructChallenge(BigInteger context, BigInteger nonce) {
-		Proof proof;
-		IdemixPublicKey pk;
+	private BigInteger reconstructChallenge(BigInteger context, BigInteger nonce,
+			List<List<BigInteger>> contributions) {
 		List<BigInteger> toHash = new ArrayList<>(2*size() + 2);
-
 		toHash.add(context);
-		for (int i = 0; i < size(); ++i) {
-			proof = get(i);
-			pk = publicKeys.get(i);
-			toHash.addAll(proof.getChallengeContribution(pk));
-		}
+		for (List<BigInteger> contribution : contributions)
+			toHash.addAll(contribution);
 		toHash.add(nonce);
 
 		BigInteger[] toHashArray = toHash.toArray(new BigInteger[toHash.size()]);
@@ -33,11 +33,15 @@ package org.irmacard.credentials.idemix.proofs;
 import org.irmacard.credentials.idemix.CredentialBuilder;
 import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixSystemParameters1024;
+import org.irmacard.credentials.idemix.util.CryptoExecutors;
+import org.irmacard.credentials.idemix.util.CryptoTask;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * <p>A builder for {@link ProofList}s, for creating cryptographically bound proofs of knowledge. It works as
@@ -184,6 +188,19 @@ public class ProofListBuilder {
 		return createProofList(challenge);
 	}
 
+	/**
+	 * As {@link #build()}, but runs on the given executor (or the default one of {@link CryptoExecutors}
+	 * if it is null). This builder should not be modified until the task has completed.
+	 */
+	public CryptoTask<ProofList> buildAsync(Executor executor) {
+		return CryptoTask.submit(new Callable<ProofList>() {
+			@Override
+			public ProofList call() {
+				return build();
+			}
+		}, executor);
+	}
+
 	public ProofList createProofList(BigInteger challenge) {
 		return createProofList(challenge, null);
 	}
@@ -37,6 +37,7 @@ import java.util.List;
 import de.henku.jpaillier.KeyPair;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.idemix.util.Crypto;
 
 public class ProofP implements Proof {
@@ -59,7 +60,8 @@ public class ProofP implements Proof {
 	@Override
 	public boolean verify(IdemixPublicKey pk, BigInteger context,
 			BigInteger nonce, BigInteger challenge) {
-		IdemixSystemParameters params = pk.getSystemParameters();
+		if (!isWellFormed(pk))
+			return false;
 
 		// Recalculate hash
 		BigInteger c_prime = challenge;
@@ -79,7 +81,32 @@ public class ProofP implements Proof {
 
 	@Override
 	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk) {
-		return Arrays.asList(P, reconstructP_commit(pk));
+		return getChallengeContribution(pk, null);
+	}
+
+	@Override
+	public void addInversions(IdemixPublicKey pk, BatchInverse inverses) {
+		inverses.add(P);
+	}
+
+	@Override
+	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk, BatchInverse inverses) {
+		return Arrays.asList(P, reconstructP_commit(pk, inverses));
+	}
+
+	@Override
+	public boolean isWellFormed(IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		return ProofChecks.inUnsignedRange(c, params.get_l_h(), "c")
+				&& ProofChecks.inGroup(P, pk.getModulus(), "P")
+				&& ProofChecks.inRange(s_response, params.get_l_s_commit() + 1, "s_response");
+	}
+
+	@Override
+	public long estimateCost(IdemixPublicKey pk) {
+		// The exponents of reconstructP_commit
+		return VerificationCost.multiExp(pk, VerificationCost.bits(c), VerificationCost.bits(s_response));
 	}
 
 	@Override
@@ -106,14 +133,16 @@ public class ProofP implements Proof {
 	}
 
 	public BigInteger reconstructP_commit(IdemixPublicKey pk) {
-		BigInteger n = pk.getModulus();
+		return reconstructP_commit(pk, null);
+	}
 
+	private BigInteger reconstructP_commit(IdemixPublicKey pk, BatchInverse inverses) {
 		// Reconstruct U_commit
 		// U_commit = P^{-c} * R_0^{s_response}
-		BigInteger Uc = P.modPow(this.c.negate(), n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
-
-		return Uc.multiply(R0s).mod(n);
+		return pk.newMultiExp().useInverses(inverses)
+				.add(P, this.c.negate())
+				.add(pk.getGeneratorR(0), this.s_response)
+				.compute();
 	}
 
 	public ProofP mergeProofP(ProofP p, IdemixPublicKey pk) {
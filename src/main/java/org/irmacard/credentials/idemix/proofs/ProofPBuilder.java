@@ -82,7 +82,7 @@ public class ProofPBuilder extends ProofBuilder {
 		this.s = s;
 		this.pk = pk;
 
-		this.P = pk.getGeneratorR(0).modPow(s, pk.getModulus());
+		this.P = pk.modPowR(0, s);
 	}
 
 	@Override
@@ -106,7 +106,7 @@ public class ProofPBuilder extends ProofBuilder {
 		ProofPCommitments coms = new ProofPCommitments();
 
 		coms.P = P;
-		coms.Pcommit = pk.getGeneratorR(0).modPow(rand.s_randomizer, pk.getModulus());
+		coms.Pcommit = pk.modPowR(0, rand.s_randomizer);
 
 		return coms;
 	}
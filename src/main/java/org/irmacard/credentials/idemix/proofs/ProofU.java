@@ -36,6 +36,7 @@ import java.util.List;
 
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.idemix.util.Crypto;
 
 /**
@@ -60,16 +61,8 @@ public class ProofU implements Proof {
 	}
 
 	public boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce, BigInteger challenge) {
-		IdemixSystemParameters params = pk.getSystemParameters();
-
-		// Check range of v_prime_response
-		BigInteger maximum = Crypto.TWO.pow(params.get_l_v_prime_commit() + 1).subtract(BigInteger.ONE);
-		BigInteger minimum = maximum.negate();
-		if (!(v_prime_response.compareTo(minimum) >= 0 && v_prime_response
-				.compareTo(maximum) <= 0)) {
-			System.out.println("Range check on v_prime_response failed");
+		if (!isWellFormed(pk))
 			return false;
-		}
 
 		// Recalculate hash
 		BigInteger c_prime = challenge;
@@ -89,7 +82,35 @@ public class ProofU implements Proof {
 
 	@Override
 	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk) {
-		return Arrays.asList(U, reconstructU_commit(pk));
+		return getChallengeContribution(pk, null);
+	}
+
+	@Override
+	public void addInversions(IdemixPublicKey pk, BatchInverse inverses) {
+		inverses.add(U);
+	}
+
+	@Override
+	public List<BigInteger> getChallengeContribution(IdemixPublicKey pk, BatchInverse inverses) {
+		return Arrays.asList(U, reconstructU_commit(pk, inverses));
+	}
+
+	@Override
+	public boolean isWellFormed(IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		// The secret key response may be the sum of those of the user and the keyshare server
+		return ProofChecks.inUnsignedRange(c, params.get_l_h(), "c")
+				&& ProofChecks.inGroup(U, pk.getModulus(), "U")
+				&& ProofChecks.inRange(v_prime_response, params.get_l_v_prime_commit() + 1, "v_prime_response")
+				&& ProofChecks.inRange(s_response, params.get_l_s_commit() + 1, "s_response");
+	}
+
+	@Override
+	public long estimateCost(IdemixPublicKey pk) {
+		// The exponents of reconstructU_commit
+		return VerificationCost.multiExp(pk, VerificationCost.bits(c),
+				VerificationCost.bits(v_prime_response), VerificationCost.bits(s_response));
 	}
 
 	@Override
@@ -103,15 +124,17 @@ public class ProofU implements Proof {
 	}
 
 	public BigInteger reconstructU_commit(IdemixPublicKey pk) {
-		BigInteger n = pk.getModulus();
+		return reconstructU_commit(pk, null);
+	}
 
+	private BigInteger reconstructU_commit(IdemixPublicKey pk, BatchInverse inverses) {
 		// Reconstruct U_commit
 		// U_commit = U^{-c} * S^{v_prime_response} * R_0^{s_response}
-		BigInteger Uc = U.modPow(this.c.negate(), n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v_prime_response, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
-
-		return Uc.multiply(Sv).multiply(R0s).mod(n);
+		return pk.newMultiExp().useInverses(inverses)
+				.add(U, this.c.negate())
+				.add(pk.getGeneratorS(), this.v_prime_response)
+				.add(pk.getGeneratorR(0), this.s_response)
+				.compute();
 	}
 
 	public BigInteger getU() { return U; }
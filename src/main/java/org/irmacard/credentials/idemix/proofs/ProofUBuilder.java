@@ -40,6 +40,7 @@ import org.irmacard.credentials.idemix.CLSignature;
 import org.irmacard.credentials.idemix.CredentialBuilder;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.PreparedCommitment;
 import org.irmacard.credentials.idemix.proofs.ProofPBuilder.ProofPCommitments;
 import org.irmacard.credentials.idemix.util.Crypto;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
@@ -52,6 +53,7 @@ public class ProofUBuilder extends ProofBuilder {
 	class ProofURandomizers implements Randomizers {
 		private BigInteger v_prime_commit;
 		private BigInteger s_commit;
+		private PreparedCommitment prepared; // null if the randomizers are fresh
 	}
 
 	class ProofUCommitments extends Commitments {
@@ -88,10 +90,21 @@ public class ProofUBuilder extends ProofBuilder {
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
 		IdemixSystemParameters params = cb.getPublicKey().getSystemParameters();
-		rand.v_prime_commit = Crypto.randomUnsignedInteger(params.get_l_v_prime_commit());
+		PreparedCommitment prepared = cb.getPreparedCommitment();
+		if (prepared != null && !prepared.claimRandomizers())
+			prepared = null; // Already used for another proof
+		rand.prepared = prepared;
+
+		if (prepared != null) {
+			rand.v_prime_commit = prepared.get_v_prime_commit();
+		} else {
+			rand.v_prime_commit = Crypto.randomUnsignedInteger(params.get_l_v_prime_commit());
+		}
 
 		if (fixed.containsKey(USER_SECRET_KEY)) {
 			rand.s_commit = fixed.get(USER_SECRET_KEY);
+		} else if (prepared != null) {
+			rand.s_commit = prepared.get_s_commit();
 		} else {
 			rand.s_commit = Crypto.randomUnsignedInteger(params.get_l_s_commit());
 		}
@@ -103,14 +116,18 @@ public class ProofUBuilder extends ProofBuilder {
 	public ProofUCommitments calculateCommitments() {
 		ProofUCommitments coms = new ProofUCommitments(cb.getPublicKey());
 		IdemixPublicKey pk = cb.getPublicKey();
-		BigInteger n = pk.getModulus();
 
 		coms.U = cb.commitmentToSecret();
 
 		// U_commit = S^{v_prime_commit} * R_0^{s_commit}
-		BigInteger Sv = pk.getGeneratorS().modPow(rand.v_prime_commit, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(rand.s_commit, n);
-		coms.U_commit = Sv.multiply(R0s).mod(n);
+		if (rand.prepared != null) {
+			coms.U_commit = rand.prepared.getU_commit(rand.s_commit);
+		} else {
+			coms.U_commit = pk.newMultiExp()
+					.add(pk.getGeneratorS(), rand.v_prime_commit)
+					.add(pk.getGeneratorR(0), rand.s_commit)
+					.compute();
+		}
 
 		return coms;
 	}
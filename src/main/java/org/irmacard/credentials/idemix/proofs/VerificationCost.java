@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+import org.irmacard.credentials.info.KeyException;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Estimates how much work verifying proofs takes, from the sizes of their exponents and moduli only, so that
+ * expensive requests can be recognized before verifying them (see {@link AdmissionController}).
+ * <p>
+ * The cost is expressed in modular multiplications modulo a {@value #BASE_MODULUS_BITS}-bit modulus. Since
+ * schoolbook multiplication is quadratic in the length of its operands, a multiplication modulo a modulus of k
+ * bits counts as (k / {@value #BASE_MODULUS_BITS})^2 of those. The estimates follow the multi-exponentiation
+ * of {@link org.irmacard.credentials.idemix.util.MultiExp} without precomputed tables, so they are an upper
+ * bound for prepared keys.
+ */
+public class VerificationCost {
+	public static final int BASE_MODULUS_BITS = 1024;
+
+	// Window size of the multi-exponentiation, and the number of multiplications to set up the table of a base
+	private static final int WINDOW = 4;
+	private static final int TABLE_COST = 1 << (WINDOW - 1);
+
+	private VerificationCost() {
+	}
+
+	/**
+	 * Estimates the cost of a multi-exponentiation modulo the modulus of pk, with exponents of the given bit
+	 * lengths: one squaring per bit of the longest exponent, and per base a table and one multiplication
+	 * per window of its exponent.
+	 */
+	public static long multiExp(IdemixPublicKey pk, int... exponentBits) {
+		long squarings = 0;
+		long multiplications = 0;
+		for (int bits : exponentBits) {
+			squarings = Math.max(squarings, bits);
+			multiplications += TABLE_COST + (bits + WINDOW) / (WINDOW + 1);
+		}
+		return scale(pk, squarings + multiplications);
+	}
+
+	/**
+	 * Converts a number of multiplications modulo the modulus of pk to the unit of this class.
+	 */
+	public static long scale(IdemixPublicKey pk, long multiplications) {
+		double ratio = (double) pk.getModulus().bitLength() / BASE_MODULUS_BITS;
+		return (long) Math.ceil(multiplications * ratio * ratio);
+	}
+
+	/**
+	 * Estimates the cost of verifying the proofs, using their public keys if these have been set and
+	 * looking them up in the key store otherwise.
+	 * @throws KeyException if the public key of a proof cannot be determined
+	 */
+	public static long estimate(ProofList proofs) throws KeyException {
+		return estimate(proofs, null);
+	}
+
+	/**
+	 * Estimates the cost of verifying the commitment proofs in the message, as the issuer does
+	 * (see {@link org.irmacard.credentials.idemix.IdemixIssuer#verifyCommitments(IssueCommitmentMessage, BigInteger)}).
+	 * @param pk public key of the credential being issued, against which a {@link ProofU} is verified if
+	 *           the message does not say otherwise
+	 * @throws KeyException if the public key of a disclosure proof cannot be determined
+	 */
+	public static long estimate(IssueCommitmentMessage msg, IdemixPublicKey pk) throws KeyException {
+		if (msg.getCombinedProofs() != null)
+			return estimate(msg.getCombinedProofs(), pk);
+		if (msg.getCommitmentProof() != null)
+			return msg.getCommitmentProof().estimateCost(pk);
+		return 0;
+	}
+
+	private static long estimate(ProofList proofs, IdemixPublicKey defaultKey) throws KeyException {
+		List<IdemixPublicKey> keys = proofs.getPublicKeys();
+		boolean haveKeys = keys != null && keys.size() == proofs.size();
+
+		long cost = 0;
+		for (int i = 0; i < proofs.size(); i++) {
+			Proof proof = proofs.get(i);
+			if (proof == null)
+				throw new KeyException("Proof " + i + " of " + proofs.size() + " missing");
+			IdemixPublicKey pk = haveKeys ? keys.get(i) : proof.extractPublicKey();
+			if (pk == null)
+				pk = defaultKey;
+			if (pk == null)
+				throw new KeyException("Public key of proof " + i + " of " + proofs.size() + " unknown");
+			cost += proof.estimateCost(pk);
+		}
+		return cost;
+	}
+
+	/**
+	 * The bit length of an exponent, or 0 if it is missing.
+	 */
+	static int bits(BigInteger exponent) {
+		return exponent == null ? 0 : exponent.bitLength();
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.info.IdemixKeyStore;
+import org.irmacard.credentials.idemix.util.CryptoTask;
+import org.irmacard.credentials.idemix.util.LatencyHistogram;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies {@link ProofList}s on a fixed number of worker threads, with a bounded queue of waiting requests.
+ * When the queue is full, new requests are either rejected or take the place of the oldest waiting request,
+ * depending on the {@link OverloadPolicy}. A request that is still waiting when its deadline passes fails at
+ * that moment, and is removed from the queue without being verified. Either way the request fails quickly,
+ * instead of all requests becoming slow.
+ * <p>
+ * Proof lists whose public keys have not been set are looked up in the {@link IdemixKeyStore} by the worker
+ * (see {@link ProofList#populatePublicKeyArray()}).
+ */
+public class VerificationService {
+	public enum OverloadPolicy {
+		/** Fail the new request. */
+		REJECT,
+		/** Fail the oldest waiting request, and queue the new one. */
+		SHED_OLDEST
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledThreadPoolExecutor deadlines;
+	private final OverloadPolicy policy;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong shed = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	private final LatencyHistogram queueLatency = new LatencyHistogram();
+	private final LatencyHistogram verifyLatency = new LatencyHistogram();
+
+	/**
+	 * @param threads		number of worker threads
+	 * @param queueSize		maximum number of requests waiting for a worker
+	 * @param policy		what to do with a new request when the queue is full
+	 */
+	public VerificationService(int threads, int queueSize, OverloadPolicy policy) {
+		if (threads < 1 || queueSize < 1)
+			throw new IllegalArgumentException("Invalid verification service dimensions");
+
+		this.policy = policy;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "irma-verifier");
+						t.setDaemon(true);
+						return t;
+					}
+				}, new OverloadHandler());
+		this.executor.prestartAllCoreThreads();
+
+		this.deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "irma-verifier-deadlines");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.deadlines.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * As {@link #submit(ProofList, BigInteger, BigInteger, boolean, long, TimeUnit)}, without a deadline.
+	 */
+	public CryptoTask<Boolean> submit(ProofList proofs, BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+		return submit(proofs, context, nonce, shouldBeBound, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues the verification of the proofs (see {@link ProofList#verify(BigInteger, BigInteger, boolean)}).
+	 * The returned task fails with a {@link RejectedExecutionException} if the request was rejected or shed,
+	 * and with a {@link TimeoutException} as soon as the deadline passes if it has not been started by then;
+	 * it then no longer takes up a place in the queue. A verification that has started is always completed.
+	 * Cancelling the returned task before it has started also removes it from the queue at once.
+	 *
+	 * @param timeout	time after which the request fails if it has not started, or 0 for no deadline
+	 */
+	public CryptoTask<Boolean> submit(ProofList proofs, BigInteger context, BigInteger nonce,
+			boolean shouldBeBound, long timeout, TimeUnit unit) {
+		submitted.incrementAndGet();
+		final Request request = new Request(proofs, context, nonce, shouldBeBound, unit.toNanos(timeout));
+		try {
+			// Scheduled first, so that whoever claims the request can cancel the deadline
+			if (timeout > 0)
+				request.expiry = deadlines.schedule(new Runnable() {
+					@Override
+					public void run() {
+						request.expire();
+					}
+				}, timeout, unit);
+			executor.execute(request);
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			request.fail(e);
+		}
+
+		int depth = executor.getQueue().size();
+		int current;
+		while (depth > (current = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(current, depth))
+			;
+
+		return request;
+	}
+
+	/**
+	 * Stops accepting requests. Requests that were already queued are still verified.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		deadlines.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	public OverloadPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * The number of requests currently waiting for a worker.
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * The number of requests currently being verified.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * The number of requests that were verified, whatever the outcome.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getShed() {
+		return shed.get();
+	}
+
+	public long getExpired() {
+		return expired.get();
+	}
+
+	/**
+	 * Time that verified requests spent waiting for a worker.
+	 */
+	public LatencyHistogram getQueueLatency() {
+		return queueLatency;
+	}
+
+	/**
+	 * Time spent verifying requests, excluding the time spent waiting.
+	 */
+	public LatencyHistogram getVerifyLatency() {
+		return verifyLatency;
+	}
+
+	private class Request extends CryptoTask<Boolean> {
+		private final long queued = System.nanoTime();
+		private final long timeout;
+
+		// Set by whoever gets to decide what happens to this request: a worker, the deadline, shedding or
+		// cancellation
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		volatile ScheduledFuture<?> expiry;
+
+		Request(final ProofList proofs, final BigInteger context, final BigInteger nonce,
+				final boolean shouldBeBound, long timeout) {
+			super(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					if (proofs.getPublicKeys() == null || proofs.getPublicKeys().size() != proofs.size())
+						proofs.populatePublicKeyArray();
+					return proofs.verify(context, nonce, shouldBeBound);
+				}
+			});
+			this.timeout = timeout;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			if (timeout > 0 && start - queued > timeout) {
+				// The deadline task has not run yet
+				expire();
+				return;
+			}
+			if (!claimed.compareAndSet(false, true))
+				return; // Expired, shed or cancelled
+
+			cancelExpiry();
+			queueLatency.record(start - queued);
+			super.run();
+			verifyLatency.record(System.nanoTime() - start);
+			completed.incrementAndGet();
+		}
+
+		void expire() {
+			if (!claimed.compareAndSet(false, true))
+				return;
+
+			executor.remove(this);
+			expired.incrementAndGet();
+			setException(new TimeoutException("Verification request expired after waiting "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued) + " ms"));
+		}
+
+		/**
+		 * Fails the request if it has not been started or failed yet.
+		 */
+		boolean fail(Throwable t) {
+			if (!claimed.compareAndSet(false, true))
+				return false;
+
+			cancelExpiry();
+			setException(t);
+			return true;
+		}
+
+		/**
+		 * If the request has not been started, removes it from the queue and cancels its deadline as well.
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!claimed.compareAndSet(false, true))
+				return super.cancel(mayInterruptIfRunning);
+
+			executor.remove(this);
+			cancelExpiry();
+			return super.cancel(false);
+		}
+
+		private void cancelExpiry() {
+			ScheduledFuture<?> expiry = this.expiry;
+			if (expiry != null)
+				expiry.cancel(false);
+		}
+	}
+
+	private class OverloadHandler implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (policy == OverloadPolicy.SHED_OLDEST && !executor.isShutdown()) {
+				// Make room by failing the oldest waiting request; if a worker took it in the meantime, just retry
+				Runnable oldest = executor.getQueue().poll();
+				if (oldest instanceof Request
+						&& ((Request) oldest).fail(new RejectedExecutionException("Verification request shed under overload")))
+					shed.incrementAndGet();
+				if (executor.getQueue().offer(r))
+					return;
+			}
+
+			throw new RejectedExecutionException("Verification queue is full");
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of precomputed values that is kept filled in the background, by
+ * low-priority threads of its own or on a given executor, taking their
+ * computation off the critical path. Used by {@link PrimePool}, the issuer's
+ * signing pool and the disclosure proof pool, which only supply
+ * {@link #generate()}.
+ * <p>
+ * The pool holds at most capacity values. Whenever it drops below the low
+ * watermark, it is refilled up to capacity in the background; it can also be
+ * filled on the calling thread using {@link #fill()}. Every value is handed
+ * out at most once. When the pool is empty, {@link #next()} generates a
+ * value on the calling thread instead of waiting, and {@link #poll()}
+ * returns null.
+ */
+public abstract class BackgroundPool<T> {
+	private final int lowWatermark;
+	private final int threads;
+
+	private final BlockingQueue<T> values;
+	private final Executor executor; // null if there are no background refills
+	private final ExecutorService ownExecutor; // null if the executor was given
+	private volatile boolean shutdown;
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong generated = new AtomicLong();
+
+	/**
+	 * Creates an empty pool; call {@link #start()} to fill it.
+	 *
+	 * @param capacity		maximum number of values in the pool
+	 * @param lowWatermark	refill when fewer than this many values are left
+	 * @param threads		number of background threads
+	 * @param name			name of the background threads
+	 */
+	protected BackgroundPool(int capacity, int lowWatermark, int threads, final String name) {
+		if (capacity < 1 || lowWatermark < 0 || lowWatermark > capacity || threads < 1)
+			throw new IllegalArgumentException("Invalid pool dimensions");
+
+		this.lowWatermark = lowWatermark;
+		this.threads = threads;
+		this.values = new ArrayBlockingQueue<>(capacity);
+		this.ownExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		this.executor = ownExecutor;
+	}
+
+	/**
+	 * Creates an empty pool that is refilled by one task at a time on the
+	 * given executor; call {@link #start()} or {@link #fill()} to fill it.
+	 *
+	 * @param capacity		maximum number of values in the pool
+	 * @param lowWatermark	refill when fewer than this many values are left (if there is an executor)
+	 * @param executor		executor for background refills, may be null
+	 */
+	protected BackgroundPool(int capacity, int lowWatermark, Executor executor) {
+		if (capacity < 1 || lowWatermark < 0 || lowWatermark > capacity)
+			throw new IllegalArgumentException("Invalid pool dimensions");
+
+		this.lowWatermark = lowWatermark;
+		this.threads = 1;
+		this.values = new ArrayBlockingQueue<>(capacity);
+		this.ownExecutor = null;
+		this.executor = executor;
+	}
+
+	/**
+	 * Computes a fresh value. Called concurrently by the background threads,
+	 * by {@link #fill()} and by {@link #next()} when the pool is empty.
+	 */
+	protected abstract T generate();
+
+	/**
+	 * Starts filling the pool in the background.
+	 */
+	public void start() {
+		refill();
+	}
+
+	/**
+	 * Returns a value that has not been handed out before: from the pool if
+	 * possible, otherwise freshly generated on this thread.
+	 */
+	public T next() {
+		T value = poll();
+		return value != null ? value : generate();
+	}
+
+	/**
+	 * Takes a value from the pool, or returns null if it is empty (for callers
+	 * that have a cheaper way to do without).
+	 */
+	public T poll() {
+		T value = values.poll();
+		if (values.size() < lowWatermark)
+			refill();
+
+		if (value != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Fills the pool up to its capacity, on the calling thread.
+	 */
+	public void fill() {
+		while (values.remainingCapacity() > 0 && !shutdown) {
+			T value = generate();
+			generated.incrementAndGet();
+			if (!values.offer(value))
+				break;
+		}
+	}
+
+	private void refill() {
+		if (executor == null || shutdown || !refilling.compareAndSet(false, true))
+			return;
+
+		final AtomicLong workers = new AtomicLong(threads);
+		for (int i = 0; i < threads; i++) {
+			try {
+				submitRefill(workers);
+			} catch (RejectedExecutionException e) {
+				// Shut down concurrently
+				refilling.set(false);
+				return;
+			}
+		}
+	}
+
+	private void submitRefill(final AtomicLong workers) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fill();
+				} finally {
+					if (workers.decrementAndGet() == 0)
+						refilling.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops refilling the pool, and the background threads if it has its own.
+	 * Values that are still in the pool can be taken, after that they are
+	 * generated inline.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		if (ownExecutor != null)
+			ownExecutor.shutdownNow();
+	}
+
+	/** Number of values currently in the pool. */
+	public int size() {
+		return values.size();
+	}
+
+	/** Number of calls to {@link #next()} that were served from the pool. */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** Number of calls to {@link #next()} that had to generate a value inline. */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Number of values generated to fill the pool, i.e. not inline by {@link #next()}. */
+	public long getGenerated() {
+		return generated.get();
+	}
+}
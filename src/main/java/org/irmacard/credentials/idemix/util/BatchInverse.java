@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Inverts a number of elements modulo the same modulus at once, using
+ * Montgomery's trick: one modular inversion of the product of all elements,
+ * and 3(k-1) multiplications to get the individual inverses out of it.
+ * <p>
+ * Add the elements using {@link #add(BigInteger)}, call {@link #invert()},
+ * and then look the inverses up using {@link #get(BigInteger)}. After
+ * {@link #invert()} an instance is no longer modified, so it can be shared
+ * between threads.
+ */
+public class BatchInverse {
+	private final BigInteger modulus;
+	private final List<BigInteger> elements = new ArrayList<>();
+	private final HashMap<BigInteger, BigInteger> inverses = new HashMap<>();
+	private boolean inverted = false;
+
+	public BatchInverse(BigInteger modulus) {
+		this.modulus = modulus;
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * Adds an element to be inverted. Adding the same element twice has no effect.
+	 * @throws IllegalStateException if {@link #invert()} has already been called
+	 */
+	public void add(BigInteger x) {
+		if (inverted)
+			throw new IllegalStateException("Elements have already been inverted");
+		if (!inverses.containsKey(x)) {
+			inverses.put(x, null);
+			elements.add(x);
+		}
+	}
+
+	/**
+	 * Computes the inverses of all elements added so far.
+	 * @throws ArithmeticException if one of the elements is not invertible
+	 */
+	public void invert() {
+		if (inverted)
+			return;
+		inverted = true;
+
+		int k = elements.size();
+		if (k == 0)
+			return;
+
+		// prefix[i] = x_0 * ... * x_i
+		BigInteger[] prefix = new BigInteger[k];
+		prefix[0] = elements.get(0).mod(modulus);
+		for (int i = 1; i < k; i++)
+			prefix[i] = prefix[i - 1].multiply(elements.get(i)).mod(modulus);
+
+		// Invariant: inverse = (x_0 * ... * x_i)^{-1}
+		BigInteger inverse = prefix[k - 1].modInverse(modulus);
+		for (int i = k - 1; i > 0; i--) {
+			BigInteger x = elements.get(i);
+			inverses.put(x, inverse.multiply(prefix[i - 1]).mod(modulus));
+			inverse = inverse.multiply(x).mod(modulus);
+		}
+		inverses.put(elements.get(0), inverse);
+	}
+
+	/**
+	 * Returns the inverse of x, or null if x was not added or {@link #invert()}
+	 * has not been called yet.
+	 */
+	public BigInteger get(BigInteger x) {
+		return inverses.get(x);
+	}
+
+	public int size() {
+		return elements.size();
+	}
+}
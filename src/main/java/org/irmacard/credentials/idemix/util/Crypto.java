@@ -46,6 +46,8 @@ import java.util.List;
 public class Crypto {
 	public static final BigInteger TWO = new BigInteger("2");
 
+	private static final PrimeGenerator primeGenerator = new PrimeGenerator();
+
 	/**
 	 * Creates a random integer in the range [-2^bitlength + 1, 2^bitlength - 1]
 	 *
@@ -179,7 +181,7 @@ public class Crypto {
 	/**
 	 * Returns a BigInteger in the range [2^start, 2^start + 2^length] that is
 	 * probably prime. The probability that the number is not prime is no more
-	 * than 2^(-100).
+	 * than 2^(-100). Uses a sequential {@link PrimeGenerator}.
 	 *
 	 * TODO: Make sure this code is correct
 	 *
@@ -190,18 +192,39 @@ public class Crypto {
 	 * @return A number in the given range that is probably prime
 	 */
 	public static BigInteger probablyPrimeInBitRange(int start_in_bits, int length_in_bits) {
-		SecureRandom rnd = new SecureRandom();
-		BigInteger start = TWO.pow(start_in_bits);
-		BigInteger end = start.add(TWO.pow(length_in_bits));
-		BigInteger prime = end;
-
-		// Ensure that the generated prime is never too big
-		while (prime.compareTo(end) >= 0) {
-			BigInteger offset = new BigInteger(length_in_bits, rnd);
-			prime = start.add(offset).nextProbablePrime();
-		}
+		return primeGenerator.probablyPrimeInBitRange(start_in_bits, length_in_bits);
+	}
 
-		return prime;
+	/**
+	 * Computes the Jacobi symbol (a/n), which for a prime n is the Legendre
+	 * symbol: 1 if a is a nonzero square modulo n, -1 if it is not a square,
+	 * and 0 if n divides a. This takes about as long as a gcd.
+	 *
+	 * @param n	an odd positive modulus
+	 * @throws IllegalArgumentException if n is not odd and positive
+	 */
+	public static int jacobi(BigInteger a, BigInteger n) {
+		if (n.signum() <= 0 || !n.testBit(0))
+			throw new IllegalArgumentException("Jacobi symbol requires an odd positive modulus");
+
+		a = a.mod(n);
+		int result = 1;
+		while (a.signum() != 0) {
+			// (2/n) = -1 iff n = 3, 5 (mod 8)
+			int zeros = a.getLowestSetBit();
+			a = a.shiftRight(zeros);
+			int n_mod_8 = n.intValue() & 7;
+			if ((zeros & 1) == 1 && (n_mod_8 == 3 || n_mod_8 == 5))
+				result = -result;
+
+			// Quadratic reciprocity: (a/n) = -(n/a) iff a = n = 3 (mod 4)
+			if ((a.intValue() & 3) == 3 && (n_mod_8 & 3) == 3)
+				result = -result;
+			BigInteger t = a;
+			a = n.mod(t);
+			n = t;
+		}
+		return n.equals(BigInteger.ONE) ? result : 0;
 	}
 
 	/**
@@ -217,25 +240,29 @@ public class Crypto {
 	 */
 	public static BigInteger representToBases(List<BigInteger> bases,
 			List<BigInteger> exps, BigInteger modulus, int maxMessageLength) {
+		return representToBases(new MultiExp(modulus), bases, exps, maxMessageLength).compute();
+	}
+
+	/**
+	 * Adds the terms bases[i]^{exps[i]} to the given multi-exponentiation,
+	 * hashing exponents that exceed maxMessageLength bits, as in
+	 * {@link #representToBases(List, List, BigInteger, int)}.
+	 *
+	 * @return			the multi-exponentiation
+	 */
+	public static MultiExp representToBases(MultiExp multiExp, List<BigInteger> bases,
+			List<BigInteger> exps, int maxMessageLength) {
 
 		if (bases.size() < exps.size()) {
 			throw new RuntimeException("Not enough bases to represent exponents");
 		}
 
-		BigInteger r = BigInteger.ONE;
-		BigInteger tmp;
-		BigInteger exponent;
 		for (int i = 0; i < exps.size(); i++) {
-			exponent = exps.get(i);
+			BigInteger exponent = exps.get(i);
 			if (exponent.bitLength() > maxMessageLength)
 				exponent = Crypto.sha256Hash(exponent.toByteArray());
-
-			// tmp = bases_i ^ exps_i (mod modulus), with exps_i hashed if it exceeds maxMessageLength
-			tmp = bases.get(i).modPow(exponent, modulus);
-
-			// r = r * tmp (mod modulus)
-			r = r.multiply(tmp).mod(modulus);
+			multiExp.add(bases.get(i), exponent);
 		}
-		return r;
+		return multiExp;
 	}
 }
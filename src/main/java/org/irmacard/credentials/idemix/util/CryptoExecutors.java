@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the asynchronous variants of the issuance, proving and
+ * verification methods, which run on a {@link CryptoTask}.
+ */
+public class CryptoExecutors {
+	/** Maximum number of tasks waiting for a thread of the default executor. */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static volatile ExecutorService defaultExecutor;
+
+	private CryptoExecutors() {
+	}
+
+	/**
+	 * Returns a bounded executor for CPU-heavy computations: a fixed number of
+	 * daemon threads, and a queue of at most queueSize waiting tasks, beyond
+	 * which tasks are rejected (see {@link CryptoTask#submit(java.util.concurrent.Callable, java.util.concurrent.Executor)}).
+	 */
+	public static ExecutorService newBoundedExecutor(int threads, int queueSize) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "irma-crypto-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Returns the executor that the asynchronous methods use when no executor
+	 * is given: one thread per processor, and a queue of
+	 * {@link #DEFAULT_QUEUE_SIZE} tasks. It is created on first use.
+	 */
+	public static ExecutorService getDefault() {
+		ExecutorService executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (CryptoExecutors.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					executor = newBoundedExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+}
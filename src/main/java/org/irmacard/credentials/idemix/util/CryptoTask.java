@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A cryptographic computation running on an executor (see
+ * {@link CryptoExecutors}). Besides the usual {@link java.util.concurrent.Future}
+ * methods, including cancellation, it accepts callbacks that are invoked when
+ * it completes, so that callers need not block in {@link #get()}. This is
+ * also enough to adapt it to other future types, such as a
+ * CompletableFuture.
+ */
+public class CryptoTask<T> extends FutureTask<T> {
+	/**
+	 * Receives the outcome of a {@link CryptoTask}. Callbacks run on the thread
+	 * that completes the task, or on the thread that adds them if the task has
+	 * already completed, so they should not block.
+	 */
+	public interface Callback<T> {
+		void onSuccess(T result);
+
+		/**
+		 * @param error	the exception thrown by the computation, a
+		 *              {@link CancellationException} if the task was cancelled, or a
+		 *              {@link RejectedExecutionException} if the executor did not accept it
+		 */
+		void onFailure(Throwable error);
+	}
+
+	private final List<Callback<? super T>> callbacks = new ArrayList<>();
+	private boolean completed = false;
+
+	public CryptoTask(Callable<T> computation) {
+		super(computation);
+	}
+
+	/**
+	 * Runs the computation on the given executor, or on the default crypto
+	 * executor if it is null. If the executor rejects it, the task fails with
+	 * the {@link RejectedExecutionException}.
+	 */
+	public static <T> CryptoTask<T> submit(Callable<T> computation, Executor executor) {
+		CryptoTask<T> task = new CryptoTask<>(computation);
+		if (executor == null)
+			executor = CryptoExecutors.getDefault();
+
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.setException(e);
+		}
+		return task;
+	}
+
+	/**
+	 * Adds a callback that is invoked once the task completes (immediately if it
+	 * already has).
+	 */
+	public CryptoTask<T> addCallback(Callback<? super T> callback) {
+		synchronized (callbacks) {
+			// get() may return before done() has run, so also check isDone()
+			if (!completed && !isDone()) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+
+		notify(callback);
+		return this;
+	}
+
+	@Override
+	protected void done() {
+		List<Callback<? super T>> toNotify;
+		synchronized (callbacks) {
+			completed = true;
+			toNotify = new ArrayList<>(callbacks);
+			callbacks.clear();
+		}
+
+		for (Callback<? super T> callback : toNotify)
+			notify(callback);
+	}
+
+	private void notify(Callback<? super T> callback) {
+		T result;
+		try {
+			result = get();
+		} catch (ExecutionException e) {
+			callback.onFailure(e.getCause());
+			return;
+		} catch (CancellationException e) {
+			callback.onFailure(e);
+			return;
+		} catch (InterruptedException e) {
+			// Cannot happen, the task is done
+			Thread.currentThread().interrupt();
+			callback.onFailure(e);
+			return;
+		}
+		callback.onSuccess(result);
+	}
+}
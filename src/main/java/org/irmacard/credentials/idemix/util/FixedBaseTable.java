@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * Precomputed table for exponentiating a fixed base modulo a fixed odd
+ * modulus. The exponent is recoded into signed windows of w bits, i.e.
+ * digits d in [-2^{w-1}, 2^{w-1}], and for every window j and every d in
+ * [1, 2^{w-1}] the table stores both base^{d * 2^{w*j}} and its inverse.
+ * Computing base^x then takes one multiplication per nonzero window of x, and
+ * no squarings at all. Since the inverse powers are at hand, a negative
+ * exponent costs the same as a positive one. The entries are kept in
+ * Montgomery form (see {@link Montgomery}).
+ *
+ * Exponents that are longer than the table was built for are handed to
+ * {@link BigInteger#modPow(BigInteger, BigInteger)}.
+ */
+public class FixedBaseTable {
+	public static final int DEFAULT_WINDOW = 4;
+
+	private final BigInteger base;
+	private final Montgomery mont;
+	private final int window;
+	private final int maxBits;
+
+	// table[j][d-1] = base^{d * 2^{window*j}} and inverse[j][d-1] = base^{-d * 2^{window*j}}
+	// (mod modulus) for d in [1, 2^{window-1}], in Montgomery form. There is one window more
+	// than maxBits requires, for the carry of the signed recoding.
+	private final int[][][] table;
+	private final int[][][] inverse;
+
+	/**
+	 * @param base		the fixed base, which must be invertible modulo the modulus
+	 * @param modulus	the (odd) modulus
+	 * @param maxBits	the largest exponent bitlength that the table should cover
+	 * @throws ArithmeticException if the base is not invertible
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int maxBits) {
+		this(base, new Montgomery(modulus), maxBits, DEFAULT_WINDOW);
+	}
+
+	public FixedBaseTable(BigInteger base, Montgomery mont, int maxBits, int window) {
+		this.base = base;
+		this.mont = mont;
+		this.window = window;
+
+		int windows = (maxBits + window - 1) / window;
+		this.maxBits = windows * window;
+
+		this.table = powers(mont, base, windows + 1, window);
+		this.inverse = powers(mont, base.modInverse(mont.getModulus()), windows + 1, window);
+	}
+
+	private static int[][][] powers(Montgomery mont, BigInteger base, int windows, int window) {
+		int digits = 1 << (window - 1);
+		int[][][] powers = new int[windows][digits][];
+		int[] scratch = mont.newScratch();
+
+		// g runs over base^{2^{window*j}}
+		int[] g = mont.toMontgomery(base);
+		for (int j = 0; j < windows; j++) {
+			int[][] row = powers[j];
+			row[0] = g;
+			for (int d = 1; d < digits; d++) {
+				row[d] = mont.newElement();
+				mont.multiply(row[d - 1], g, row[d], scratch);
+			}
+			// g^{2^window} = (g^{2^{window-1}})^2
+			int[] next = mont.newElement();
+			mont.multiply(row[digits - 1], row[digits - 1], next, scratch);
+			g = next;
+		}
+
+		return powers;
+	}
+
+	/**
+	 * Returns base^exponent (mod modulus). Negative exponents are supported.
+	 */
+	public BigInteger pow(BigInteger exponent) {
+		if (!covers(exponent)) {
+			return base.modPow(exponent, mont.getModulus());
+		}
+
+		Montgomery.Workspace ws = mont.workspace();
+		int[] acc = ws.elements(1)[0];
+		System.arraycopy(mont.one(), 0, acc, 0, acc.length);
+		multiplyPow(acc, exponent, ws.scratch);
+
+		return mont.fromMontgomery(acc);
+	}
+
+	/**
+	 * Whether the table is large enough for the given exponent.
+	 */
+	public boolean covers(BigInteger exponent) {
+		return exponent.abs().bitLength() <= maxBits;
+	}
+
+	/**
+	 * Sets acc = acc * base^exponent, for acc in Montgomery form with respect
+	 * to the modulus of this table and an exponent (of either sign) that this
+	 * table {@link #covers(BigInteger)}.
+	 */
+	void multiplyPow(int[] acc, BigInteger exponent, int[] scratch) {
+		// base^{-x} is computed as base^x with the roles of the tables swapped
+		int[][][] positive = exponent.signum() >= 0 ? table : inverse;
+		int[][][] negative = exponent.signum() >= 0 ? inverse : table;
+
+		byte[] bytes = exponent.abs().toByteArray();
+		int windows = (exponent.abs().bitLength() + window - 1) / window;
+		int half = 1 << (window - 1);
+
+		// Signed recoding: a digit above 2^{w-1} becomes d - 2^w, carrying one into the next window
+		int carry = 0;
+		for (int j = 0; j <= windows; j++) {
+			int d = digit(bytes, j * window, window) + carry;
+			carry = 0;
+			if (d > half) {
+				d -= 1 << window;
+				carry = 1;
+			}
+
+			if (d > 0)
+				mont.multiply(acc, positive[j][d - 1], acc, scratch);
+			else if (d < 0)
+				mont.multiply(acc, negative[j][-d - 1], acc, scratch);
+		}
+	}
+
+	Montgomery getMontgomery() {
+		return mont;
+	}
+
+	public BigInteger getBase() {
+		return base;
+	}
+
+	public BigInteger getModulus() {
+		return mont.getModulus();
+	}
+
+	public int getMaxBits() {
+		return maxBits;
+	}
+
+	/**
+	 * Extracts the (unsigned) width-bit digit starting at bit offset from a
+	 * big-endian two's complement byte array, as returned by
+	 * {@link BigInteger#toByteArray()} for a nonnegative number.
+	 */
+	static int digit(byte[] bytes, int offset, int width) {
+		int result = 0;
+		for (int k = width - 1; k >= 0; k--) {
+			int bit = offset + k;
+			int idx = bytes.length - 1 - (bit >>> 3);
+			result <<= 1;
+			if (idx >= 0 && ((bytes[idx] >>> (bit & 7)) & 1) != 0)
+				result |= 1;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, with buckets whose upper bounds double
+ * from 64 microseconds up to about 34 seconds, and one bucket for anything
+ * longer.
+ */
+public class LatencyHistogram {
+	private static final int FIRST_BOUND_LOG = 6; // 64 us
+	private static final int BUCKETS = 20;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a duration, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(bucket(micros));
+		total.addAndGet(micros);
+
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros))
+			;
+	}
+
+	private static int bucket(long micros) {
+		// The smallest i with micros <= 2^{FIRST_BOUND_LOG + i}
+		int log = 64 - Long.numberOfLeadingZeros(Math.max(0, micros - 1));
+		return Math.min(BUCKETS, Math.max(0, log - FIRST_BOUND_LOG));
+	}
+
+	/**
+	 * The upper bounds of the buckets in microseconds; the last bucket, which
+	 * is not included, holds all larger durations.
+	 */
+	public long[] getBucketBounds() {
+		long[] bounds = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			bounds[i] = 1L << (FIRST_BOUND_LOG + i);
+		return bounds;
+	}
+
+	/**
+	 * The number of recorded durations per bucket; one more than the number
+	 * of bounds.
+	 */
+	public long[] getCounts() {
+		long[] result = new long[BUCKETS + 1];
+		for (int i = 0; i <= BUCKETS; i++)
+			result[i] = counts.get(i);
+		return result;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i <= BUCKETS; i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Returns an upper bound (in microseconds) of the given quantile, in
+	 * [0, 1], of the recorded durations, or 0 if nothing was recorded.
+	 */
+	public long getQuantile(double quantile) {
+		long[] snapshot = getCounts();
+		long count = 0;
+		for (long c : snapshot)
+			count += c;
+		if (count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(1L << (FIRST_BOUND_LOG + i), max.get());
+		}
+		return max.get();
+	}
+
+	public long getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / count;
+	}
+
+	public long getMaxMicros() {
+		return max.get();
+	}
+}
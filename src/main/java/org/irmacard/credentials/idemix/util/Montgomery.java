@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Montgomery multiplication modulo a fixed odd modulus, on little-endian
+ * arrays of 32-bit limbs. Elements are kept in Montgomery form aR (mod n),
+ * with R = 2^{32k} for a modulus of k limbs.
+ *
+ * This exists because {@link BigInteger} only uses Montgomery arithmetic
+ * inside {@link BigInteger#modPow(BigInteger, BigInteger)}; a product of
+ * precomputed powers computed as multiply(...).mod(n) pays for a full long
+ * division at every step, which is slower than the modPow it was meant to
+ * replace.
+ *
+ * Conversions into Montgomery form are done by a Montgomery multiplication
+ * with R^2 (mod n) instead of a division. Callers inside this package can
+ * use a per-thread {@link Workspace} for their temporaries, so that a
+ * computation does not allocate anything besides its result.
+ */
+public class Montgomery {
+	private static final long MASK = 0xffffffffL;
+
+	private final BigInteger modulus;
+	private final int k;
+	private final int[] n;
+	private final int n0;
+	private final int[] one;
+	private final int[] r2;
+	private final int[] unit;
+
+	private static final ThreadLocal<Workspace> workspaces = new ThreadLocal<>();
+
+	/**
+	 * @param modulus	an odd modulus larger than one
+	 * @throws IllegalArgumentException if the modulus is not odd
+	 */
+	public Montgomery(BigInteger modulus) {
+		if (!modulus.testBit(0) || modulus.compareTo(BigInteger.ONE) <= 0)
+			throw new IllegalArgumentException("Montgomery arithmetic requires an odd modulus");
+
+		this.modulus = modulus;
+		this.k = (modulus.bitLength() + 31) / 32;
+		this.n = toLimbs(modulus, k);
+
+		// n0 = -n^{-1} mod 2^32, by Newton iteration (each step doubles the correct bits)
+		int inv = n[0];
+		for (int i = 0; i < 5; i++)
+			inv *= 2 - n[0] * inv;
+		this.n0 = -inv;
+
+		this.one = toLimbs(BigInteger.ONE.shiftLeft(32 * k).mod(modulus), k);
+		this.r2 = toLimbs(BigInteger.ONE.shiftLeft(64 * k).mod(modulus), k);
+		this.unit = new int[k];
+		this.unit[0] = 1;
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * The number of 32-bit limbs of elements.
+	 */
+	public int getLimbs() {
+		return k;
+	}
+
+	public int[] newElement() {
+		return new int[k];
+	}
+
+	/**
+	 * Scratch space as required by {@link #multiply(int[], int[], int[], int[])}.
+	 */
+	public int[] newScratch() {
+		return new int[k + 2];
+	}
+
+	/**
+	 * Returns 1 in Montgomery form. Do not modify the returned array.
+	 */
+	public int[] one() {
+		return one;
+	}
+
+	/**
+	 * Converts x (mod n) to Montgomery form.
+	 */
+	public int[] toMontgomery(BigInteger x) {
+		int[] out = new int[k];
+		toMontgomery(x, out, workspace().scratch);
+		return out;
+	}
+
+	/**
+	 * Sets out to x (mod n) in Montgomery form. Only reduces x using a
+	 * division if it is not already in [0, n).
+	 */
+	public void toMontgomery(BigInteger x, int[] out, int[] scratch) {
+		if (x.signum() < 0 || x.compareTo(modulus) >= 0)
+			x = x.mod(modulus);
+		toLimbs(x, out);
+		multiply(out, r2, out, scratch);
+	}
+
+	/**
+	 * Converts an element in Montgomery form back to an ordinary integer in [0, n).
+	 */
+	public BigInteger fromMontgomery(int[] a) {
+		int[] result = new int[k];
+		multiply(a, unit, result, workspace().scratch);
+		return fromLimbs(result);
+	}
+
+	/**
+	 * Returns the workspace of the current thread, sized for this modulus.
+	 */
+	Workspace workspace() {
+		Workspace ws = workspaces.get();
+		if (ws == null || ws.limbs != k) {
+			ws = new Workspace(k);
+			workspaces.set(ws);
+		}
+		return ws;
+	}
+
+	/**
+	 * Sets out = a * b * R^{-1} (mod n), for a and b in Montgomery form
+	 * (and hence smaller than n). out may be the same array as a or b.
+	 *
+	 * @param scratch	an array of at least k+2 limbs, see {@link #newScratch()}
+	 */
+	public void multiply(int[] a, int[] b, int[] out, int[] scratch) {
+		int[] t = scratch;
+		for (int i = 0; i < k + 2; i++)
+			t[i] = 0;
+
+		// Coarsely integrated operand scanning (CIOS)
+		for (int i = 0; i < k; i++) {
+			long bi = b[i] & MASK;
+			long carry = 0;
+			for (int j = 0; j < k; j++) {
+				long s = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+				t[j] = (int) s;
+				carry = s >>> 32;
+			}
+			long s = (t[k] & MASK) + carry;
+			t[k] = (int) s;
+			t[k + 1] = (int) (s >>> 32);
+
+			long m = (t[0] * n0) & MASK;
+			s = (t[0] & MASK) + m * (n[0] & MASK);
+			carry = s >>> 32;
+			for (int j = 1; j < k; j++) {
+				s = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+				t[j - 1] = (int) s;
+				carry = s >>> 32;
+			}
+			s = (t[k] & MASK) + carry;
+			t[k - 1] = (int) s;
+			t[k] = t[k + 1] + (int) (s >>> 32);
+		}
+
+		// Now t < 2n, subtract n once if necessary
+		if (t[k] != 0 || compare(t, n, k) >= 0) {
+			long borrow = 0;
+			for (int j = 0; j < k; j++) {
+				long s = (t[j] & MASK) - (n[j] & MASK) - borrow;
+				out[j] = (int) s;
+				borrow = s >>> 63;
+			}
+		} else {
+			System.arraycopy(t, 0, out, 0, k);
+		}
+	}
+
+	private static int compare(int[] a, int[] b, int k) {
+		for (int j = k - 1; j >= 0; j--) {
+			if (a[j] != b[j])
+				return (a[j] & MASK) < (b[j] & MASK) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	static int[] toLimbs(BigInteger x, int k) {
+		int[] limbs = new int[k];
+		toLimbs(x, limbs);
+		return limbs;
+	}
+
+	static void toLimbs(BigInteger x, int[] limbs) {
+		byte[] bytes = x.toByteArray();
+		int k = limbs.length;
+		for (int i = 0; i < k; i++)
+			limbs[i] = 0;
+		for (int i = 0; i < bytes.length && i < 4 * k; i++) {
+			int b = bytes[bytes.length - 1 - i] & 0xff;
+			limbs[i >>> 2] |= b << ((i & 3) * 8);
+		}
+	}
+
+	static BigInteger fromLimbs(int[] limbs) {
+		byte[] bytes = new byte[4 * limbs.length];
+		for (int i = 0; i < limbs.length; i++) {
+			int limb = limbs[i];
+			int idx = bytes.length - 4 * i;
+			bytes[idx - 1] = (byte) limb;
+			bytes[idx - 2] = (byte) (limb >>> 8);
+			bytes[idx - 3] = (byte) (limb >>> 16);
+			bytes[idx - 4] = (byte) (limb >>> 24);
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Reusable buffers for one thread: scratch space for
+	 * {@link #multiply(int[], int[], int[], int[])} and a block of elements.
+	 * A computation that takes the workspace must be done with it before it
+	 * calls anything else that might use it.
+	 */
+	static final class Workspace {
+		// Larger blocks are allocated on demand instead of kept around
+		private static final int MAX_CACHED_ELEMENTS = 512;
+
+		final int limbs;
+		final int[] scratch;
+		private int[][] elements = new int[0][];
+
+		Workspace(int limbs) {
+			this.limbs = limbs;
+			this.scratch = new int[limbs + 2];
+		}
+
+		/**
+		 * Returns at least count elements. Their contents are undefined.
+		 */
+		int[][] elements(int count) {
+			if (count > MAX_CACHED_ELEMENTS)
+				return new int[count][limbs];
+
+			if (elements.length < count) {
+				int size = Math.min(MAX_CACHED_ELEMENTS, Math.max(count, 2 * elements.length));
+				int[][] grown = Arrays.copyOf(elements, size);
+				for (int i = elements.length; i < size; i++)
+					grown[i] = new int[limbs];
+				elements = grown;
+			}
+			return elements;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simultaneous multi-exponentiation: computes prod_i base_i^{exp_i} (mod n).
+ * Add the terms using {@link #add(BigInteger, BigInteger)} and then call
+ * {@link #compute()}.
+ * <p>
+ * Terms whose base has a {@link FixedBaseTable} are computed from that table.
+ * The remaining terms share a single chain of squarings, using Straus'
+ * interleaved windows for a few bases or Pippenger's bucket method for many,
+ * unless the cost estimate says that separate calls to
+ * {@link BigInteger#modPow(BigInteger, BigInteger)} are cheaper (which they
+ * often are for one or two bases, see {@link #MODPOW_SPEEDUP}). Negative
+ * exponents are supported for invertible bases.
+ * <p>
+ * All intermediate values stay in Montgomery form in the per-thread
+ * workspace of the {@link Montgomery} instance; only the result is converted
+ * back to a BigInteger. As Montgomery arithmetic needs an odd modulus, an
+ * even one (only possible through {@link #MultiExp(BigInteger)}) is handled
+ * by separate calls to modPow instead.
+ */
+public class MultiExp {
+	/**
+	 * How many of our {@link Montgomery} multiplications a single
+	 * multiplication inside BigInteger.modPow is worth. HotSpot runs modPow on
+	 * intrinsified Montgomery multiplication, so sharing squarings only pays
+	 * off if it saves more than this factor in operations.
+	 */
+	static final int MODPOW_SPEEDUP = 4;
+
+	private static final int MAX_STRAUS_WINDOW = 6;
+	private static final int MAX_PIPPENGER_WINDOW = 16;
+
+	// Strategies for the variable-base terms
+	private static final int SEPARATE = 0;
+	private static final int STRAUS = 1;
+	private static final int PIPPENGER = 2;
+
+	// Fixed positions in the workspace elements, others start at FIRST_FREE
+	private static final int ACC = 0;
+	private static final int TEMP = 1;
+	private static final int RESULT = 2;
+	private static final int FIRST_FREE = 3;
+
+	private final Montgomery mont; // null if the modulus is even
+	private final BigInteger modulus;
+	private final Map<BigInteger, FixedBaseTable> tables;
+
+	// Precomputed inverses for variable bases with a negative exponent, may be null
+	private BatchInverse inverses;
+
+	// Chosen by variableElements()
+	private int strategy;
+	private int maxBits;
+	private int strausWindow;
+	private int pippengerWindow;
+
+	// Terms with a variable base, with the exponents made nonnegative
+	private final List<BigInteger> bases = new ArrayList<>();
+	private final List<BigInteger> exponents = new ArrayList<>();
+
+	// Terms with exponent 1
+	private final List<BigInteger> factors = new ArrayList<>();
+
+	// Terms computed from a fixed-base table (exponents may be negative)
+	private final List<FixedBaseTable> fixedTables = new ArrayList<>();
+	private final List<BigInteger> fixedExponents = new ArrayList<>();
+
+	public MultiExp(BigInteger modulus) {
+		this(modulus.testBit(0) ? new Montgomery(modulus) : null, modulus, null);
+	}
+
+	/**
+	 * @param mont		Montgomery arithmetic for the modulus
+	 * @param tables	fixed-base tables for bases that occur often, may be null
+	 */
+	public MultiExp(Montgomery mont, Map<BigInteger, FixedBaseTable> tables) {
+		this(mont, mont.getModulus(), tables);
+	}
+
+	private MultiExp(Montgomery mont, BigInteger modulus, Map<BigInteger, FixedBaseTable> tables) {
+		this.mont = mont;
+		this.modulus = modulus;
+		this.tables = tables;
+	}
+
+	/**
+	 * Looks up the inverses of variable bases with a negative exponent, that are
+	 * added after this call, in the given batch instead of inverting them one
+	 * by one. Bases that are not in the batch are still inverted separately.
+	 * @param inverses	inverses modulo the modulus of this instance, after {@link BatchInverse#invert()}
+	 */
+	public MultiExp useInverses(BatchInverse inverses) {
+		if (inverses != null && !inverses.getModulus().equals(modulus))
+			throw new IllegalArgumentException("Inverses are for a different modulus");
+		this.inverses = inverses;
+		return this;
+	}
+
+	/**
+	 * Multiplies base^exponent into the product.
+	 * @throws ArithmeticException if the exponent is negative and the base not invertible
+	 */
+	public MultiExp add(BigInteger base, BigInteger exponent) {
+		if (exponent.signum() == 0)
+			return this;
+
+		FixedBaseTable table = tables == null ? null : tables.get(base);
+		if (table != null && table.covers(exponent)
+				&& table.getModulus().equals(modulus)) {
+			fixedTables.add(table);
+			fixedExponents.add(exponent);
+			return this;
+		}
+
+		if (exponent.signum() < 0) {
+			BigInteger inverse = inverses == null ? null : inverses.get(base);
+			base = inverse != null ? inverse : base.modInverse(modulus);
+			exponent = exponent.negate();
+		}
+
+		if (exponent.equals(BigInteger.ONE)) {
+			factors.add(base);
+		} else {
+			bases.add(base);
+			exponents.add(exponent);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Multiplies the given factor into the product.
+	 */
+	public MultiExp multiply(BigInteger factor) {
+		return add(factor, BigInteger.ONE);
+	}
+
+	/**
+	 * Returns the product of all terms added so far, in [0, n).
+	 */
+	public BigInteger compute() {
+		if (mont == null)
+			return computeSeparately();
+
+		int limbs = mont.getLimbs();
+		Montgomery.Workspace ws = mont.workspace();
+		int[] scratch = ws.scratch;
+		int[][] elements = ws.elements(FIRST_FREE + variableElements());
+
+		int[] acc = elements[ACC];
+		System.arraycopy(mont.one(), 0, acc, 0, limbs);
+
+		for (int i = 0; i < fixedTables.size(); i++)
+			fixedTables.get(i).multiplyPow(acc, fixedExponents.get(i), scratch);
+
+		int[] tmp = elements[TEMP];
+		for (BigInteger factor : factors) {
+			mont.toMontgomery(factor, tmp, scratch);
+			mont.multiply(acc, tmp, acc, scratch);
+		}
+
+		multiplyVariableTerms(acc, elements, scratch);
+
+		return mont.fromMontgomery(acc);
+	}
+
+	/**
+	 * Computes the product without Montgomery arithmetic, for an even modulus
+	 * (there are no fixed-base tables then).
+	 */
+	private BigInteger computeSeparately() {
+		BigInteger product = BigInteger.ONE;
+		for (BigInteger factor : factors)
+			product = product.multiply(factor).mod(modulus);
+		for (int i = 0; i < bases.size(); i++)
+			product = product.multiply(bases.get(i).modPow(exponents.get(i), modulus)).mod(modulus);
+		return product;
+	}
+
+	private void multiplyVariableTerms(int[] acc, int[][] elements, int[] scratch) {
+		int k = bases.size();
+		if (k == 0)
+			return;
+
+		int[] tmp = elements[TEMP];
+		switch (strategy) {
+		case SEPARATE:
+			BigInteger n = mont.getModulus();
+			for (int i = 0; i < k; i++) {
+				mont.toMontgomery(bases.get(i).modPow(exponents.get(i), n), tmp, scratch);
+				mont.multiply(acc, tmp, acc, scratch);
+			}
+			break;
+		case STRAUS:
+			straus(acc, elements, scratch);
+			break;
+		case PIPPENGER:
+			pippenger(acc, elements, scratch);
+			break;
+		}
+	}
+
+	/**
+	 * Picks the cheapest way to compute the variable-base terms, and returns
+	 * the number of workspace elements it needs.
+	 */
+	private int variableElements() {
+		int k = bases.size();
+		strategy = SEPARATE;
+		if (k == 0)
+			return 0;
+
+		maxBits = 0;
+		long totalBits = 0;
+		for (BigInteger exponent : exponents) {
+			maxBits = Math.max(maxBits, exponent.bitLength());
+			totalBits += exponent.bitLength();
+		}
+
+		// Estimated costs, in Montgomery multiplications
+		long separateCost = (totalBits * 6 / 5) / MODPOW_SPEEDUP + 2 * k;
+
+		long strausCost = Long.MAX_VALUE;
+		for (int w = 1; w <= MAX_STRAUS_WINDOW; w++) {
+			long cost = maxBits + 2 * k + (long) k * ((1 << w) - 2);
+			for (BigInteger exponent : exponents)
+				cost += (exponent.bitLength() + w - 1) / w;
+			if (cost < strausCost) {
+				strausCost = cost;
+				strausWindow = w;
+			}
+		}
+
+		long pippengerCost = Long.MAX_VALUE;
+		for (int c = 1; c <= MAX_PIPPENGER_WINDOW; c++) {
+			long cost = maxBits + 2 * k + (long) ((maxBits + c - 1) / c) * (k + 2 * ((1 << c) - 1));
+			if (cost < pippengerCost) {
+				pippengerCost = cost;
+				pippengerWindow = c;
+			}
+		}
+
+		if (separateCost <= strausCost && separateCost <= pippengerCost) {
+			return 0;
+		} else if (strausCost <= pippengerCost) {
+			strategy = STRAUS;
+			return k << strausWindow;
+		} else {
+			strategy = PIPPENGER;
+			return k + (1 << pippengerWindow) + 1;
+		}
+	}
+
+	/**
+	 * Straus' method: a table of base^1, ..., base^{2^w - 1} per base, and one
+	 * shared chain of squarings that processes all exponents w bits at a time.
+	 */
+	private void straus(int[] acc, int[][] elements, int[] scratch) {
+		int k = bases.size();
+		int w = strausWindow;
+		int size = 1 << w;
+
+		// powers of base i are at elements[FIRST_FREE + i*size + d]
+		byte[][] digits = new byte[k][];
+		for (int i = 0; i < k; i++) {
+			int offset = FIRST_FREE + i * size;
+			mont.toMontgomery(bases.get(i), elements[offset + 1], scratch);
+			for (int d = 2; d < size; d++)
+				mont.multiply(elements[offset + d - 1], elements[offset + 1], elements[offset + d], scratch);
+			digits[i] = exponents.get(i).toByteArray();
+		}
+
+		int[] r = elements[RESULT];
+		boolean started = false;
+		for (int j = (maxBits + w - 1) / w - 1; j >= 0; j--) {
+			if (started) {
+				for (int s = 0; s < w; s++)
+					mont.multiply(r, r, r, scratch);
+			}
+
+			for (int i = 0; i < k; i++) {
+				int d = FixedBaseTable.digit(digits[i], j * w, w);
+				if (d == 0)
+					continue;
+				int[] power = elements[FIRST_FREE + i * size + d];
+				if (!started) {
+					System.arraycopy(power, 0, r, 0, r.length);
+					started = true;
+				} else {
+					mont.multiply(r, power, r, scratch);
+				}
+			}
+		}
+
+		if (started)
+			mont.multiply(acc, r, acc, scratch);
+	}
+
+	/**
+	 * Pippenger's bucket method: per window of c bits, each base is multiplied
+	 * into the bucket of its digit, after which prod_d bucket_d^d is computed
+	 * with 2(2^c - 1) multiplications using running products.
+	 */
+	private void pippenger(int[] acc, int[][] elements, int[] scratch) {
+		int k = bases.size();
+		int c = pippengerWindow;
+		int limbs = mont.getLimbs();
+
+		// bases at elements[FIRST_FREE + i], buckets at elements[bucketsOffset + d - 1],
+		// followed by the running product and the sum
+		byte[][] digits = new byte[k][];
+		for (int i = 0; i < k; i++) {
+			mont.toMontgomery(bases.get(i), elements[FIRST_FREE + i], scratch);
+			digits[i] = exponents.get(i).toByteArray();
+		}
+		int bucketsOffset = FIRST_FREE + k;
+		int buckets = (1 << c) - 1;
+		boolean[] filled = new boolean[buckets];
+		int[] running = elements[bucketsOffset + buckets];
+		int[] sum = elements[bucketsOffset + buckets + 1];
+
+		int[] r = elements[RESULT];
+		boolean started = false;
+		for (int j = (maxBits + c - 1) / c - 1; j >= 0; j--) {
+			if (started) {
+				for (int s = 0; s < c; s++)
+					mont.multiply(r, r, r, scratch);
+			}
+
+			Arrays.fill(filled, false);
+			for (int i = 0; i < k; i++) {
+				int d = FixedBaseTable.digit(digits[i], j * c, c);
+				if (d == 0)
+					continue;
+				int[] bucket = elements[bucketsOffset + d - 1];
+				if (!filled[d - 1]) {
+					System.arraycopy(elements[FIRST_FREE + i], 0, bucket, 0, limbs);
+					filled[d - 1] = true;
+				} else {
+					mont.multiply(bucket, elements[FIRST_FREE + i], bucket, scratch);
+				}
+			}
+
+			// sum = prod_d bucket_d^d = prod_d (prod_{d' >= d} bucket_d')
+			boolean haveRunning = false, haveSum = false;
+			for (int d = buckets - 1; d >= 0; d--) {
+				if (filled[d]) {
+					int[] bucket = elements[bucketsOffset + d];
+					if (!haveRunning) {
+						System.arraycopy(bucket, 0, running, 0, limbs);
+						haveRunning = true;
+					} else {
+						mont.multiply(running, bucket, running, scratch);
+					}
+				}
+				if (haveRunning) {
+					if (!haveSum) {
+						System.arraycopy(running, 0, sum, 0, limbs);
+						haveSum = true;
+					} else {
+						mont.multiply(sum, running, sum, scratch);
+					}
+				}
+			}
+
+			if (haveSum) {
+				if (!started) {
+					System.arraycopy(sum, 0, r, 0, limbs);
+					started = true;
+				} else {
+					mont.multiply(r, sum, r, scratch);
+				}
+			}
+		}
+
+		if (started)
+			mont.multiply(acc, r, acc, scratch);
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates random probable primes in a range [2^start, 2^start + 2^length).
+ * Starting from a random odd offset, windows of consecutive odd candidates
+ * are sieved against a table of small primes, and only the survivors are
+ * tested with Miller-Rabin. The residues of the window start modulo the
+ * small primes are updated incrementally when moving to the next window, so
+ * the sieve does no big number arithmetic at all.
+ * <p>
+ * Optionally, several windows can be searched in parallel on an
+ * {@link Executor}; the first prime found is returned.
+ */
+public class PrimeGenerator {
+	/** Number of odd candidates per sieve window */
+	private static final int WINDOW = 2048;
+
+	/** Small primes to sieve with (all odd primes below 2^SIEVE_BITS) */
+	private static final int SIEVE_BITS = 14;
+	private static final int[] SMALL_PRIMES = smallPrimes(1 << SIEVE_BITS);
+
+	private static final SecureRandom rnd = new SecureRandom();
+
+	private final int rounds;
+	private final Executor executor;
+	private final int parallelism;
+
+	/**
+	 * A sequential generator that uses {@link #defaultRounds(int)} Miller-Rabin
+	 * rounds.
+	 */
+	public PrimeGenerator() {
+		this(0, null, 1);
+	}
+
+	/**
+	 * @param rounds		number of Miller-Rabin rounds per survivor of the sieve,
+	 *						or 0 for {@link #defaultRounds(int)}
+	 * @param executor		executor on which to search in parallel, may be null
+	 * @param parallelism	number of windows that are searched at the same time
+	 */
+	public PrimeGenerator(int rounds, Executor executor, int parallelism) {
+		if (rounds < 0 || parallelism < 1 || (executor == null && parallelism > 1))
+			throw new IllegalArgumentException("Invalid prime generator settings");
+
+		this.rounds = rounds;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * The number of Miller-Rabin rounds with random bases for a probable prime
+	 * of the given size, taken from the table that {@link BigInteger} uses for
+	 * certainty 100. As the candidates are random, the actual error
+	 * probability is far below 2^-100 (Damgard, Landrock and Pomerance).
+	 */
+	public static int defaultRounds(int bits) {
+		if (bits < 100) return 50;
+		if (bits < 256) return 27;
+		if (bits < 512) return 15;
+		if (bits < 768) return 8;
+		if (bits < 1024) return 4;
+		return 2;
+	}
+
+	/**
+	 * Returns a probable prime in [2^start, 2^start + 2^length).
+	 *
+	 * @param start_in_bits
+	 *            The start of the interval (in bits)
+	 * @param length_in_bits
+	 *            The length of the interval (non-inclusive) (in bits)
+	 */
+	public BigInteger probablyPrimeInBitRange(final int start_in_bits, final int length_in_bits) {
+		// Sieving would discard the small primes themselves
+		if (start_in_bits < SIEVE_BITS)
+			return nextProbablePrimeInRange(start_in_bits, length_in_bits);
+
+		final int mr_rounds = rounds > 0 ? rounds : defaultRounds(start_in_bits + 1);
+		if (parallelism == 1)
+			return search(start_in_bits, length_in_bits, mr_rounds, new AtomicBoolean());
+
+		final AtomicBoolean done = new AtomicBoolean();
+		CompletionService<BigInteger> completion = new ExecutorCompletionService<>(executor);
+		for (int i = 0; i < parallelism; i++) {
+			completion.submit(new Callable<BigInteger>() {
+				@Override
+				public BigInteger call() {
+					return search(start_in_bits, length_in_bits, mr_rounds, done);
+				}
+			});
+		}
+
+		try {
+			BigInteger prime = null;
+			for (int i = 0; i < parallelism && prime == null; i++)
+				prime = completion.take().get();
+			return prime;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while searching for a prime", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Prime search failed", e.getCause());
+		} finally {
+			done.set(true);
+		}
+	}
+
+	/**
+	 * Unsieved search using {@link BigInteger#nextProbablePrime()}, for tiny
+	 * ranges.
+	 */
+	private static BigInteger nextProbablePrimeInRange(int start_in_bits, int length_in_bits) {
+		BigInteger start = Crypto.TWO.pow(start_in_bits);
+		BigInteger end = start.add(Crypto.TWO.pow(length_in_bits));
+		BigInteger prime = end;
+
+		// Ensure that the generated prime is never too big
+		while (prime.compareTo(end) >= 0) {
+			BigInteger offset = new BigInteger(length_in_bits, rnd);
+			prime = start.add(offset).nextProbablePrime();
+		}
+
+		return prime;
+	}
+
+	/**
+	 * Searches random windows until a prime is found (which is then returned),
+	 * or until done is set by someone else (then null is returned).
+	 */
+	private static BigInteger search(int start_in_bits, int length_in_bits, int mr_rounds, AtomicBoolean done) {
+		BigInteger start = Crypto.TWO.pow(start_in_bits);
+		BigInteger end = start.add(Crypto.TWO.pow(length_in_bits));
+
+		int[] residues = new int[SMALL_PRIMES.length];
+		boolean[] composite = new boolean[WINDOW];
+
+		while (!done.get()) {
+			// Random odd starting point
+			BigInteger base = start.add(new BigInteger(length_in_bits, rnd)).setBit(0);
+			residues(base, residues);
+
+			while (base.compareTo(end) < 0 && !done.get()) {
+				sieve(residues, composite);
+
+				for (int j = 0; j < WINDOW; j++) {
+					if (composite[j])
+						continue;
+					BigInteger candidate = base.add(BigInteger.valueOf(2 * j));
+					if (candidate.compareTo(end) >= 0)
+						break;
+					if (isProbablePrime(candidate, mr_rounds, rnd)) {
+						done.set(true);
+						return candidate;
+					}
+				}
+
+				// Next window: base += 2 * WINDOW, residues follow along
+				base = base.add(BigInteger.valueOf(2 * WINDOW));
+				for (int i = 0; i < SMALL_PRIMES.length; i++)
+					residues[i] = (int) ((residues[i] + 2L * WINDOW) % SMALL_PRIMES[i]);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Computes x mod p for all small primes p, using Horner's rule on the
+	 * 15-bit digits of x instead of a BigInteger division per prime. As the
+	 * primes are below 2^16, all intermediate values fit in an int.
+	 */
+	private static void residues(BigInteger x, int[] residues) {
+		int count = (x.bitLength() + 14) / 15;
+		int[] digits = new int[count];
+		for (int i = 0; i < count; i++) {
+			// most significant digit first
+			int offset = 15 * (count - 1 - i);
+			int digit = 0;
+			for (int b = 14; b >= 0; b--)
+				digit = digit << 1 | (x.testBit(offset + b) ? 1 : 0);
+			digits[i] = digit;
+		}
+
+		for (int i = 0; i < SMALL_PRIMES.length; i++) {
+			int p = SMALL_PRIMES[i];
+			int r = 0;
+			for (int digit : digits)
+				r = (r << 15 | digit) % p;
+			residues[i] = r;
+		}
+	}
+
+	/**
+	 * Marks the candidates base + 2j that are divisible by one of the small
+	 * primes, given the residues of base modulo the small primes.
+	 */
+	private static void sieve(int[] residues, boolean[] composite) {
+		for (int j = 0; j < WINDOW; j++)
+			composite[j] = false;
+
+		for (int i = 0; i < SMALL_PRIMES.length; i++) {
+			int p = SMALL_PRIMES[i];
+			// Smallest j with base + 2j = 0 (mod p): j = -r / 2 (mod p)
+			int j = (int) ((long) (p - residues[i]) % p * ((p + 1) / 2) % p);
+			for (; j < WINDOW; j += p)
+				composite[j] = true;
+		}
+	}
+
+	/**
+	 * Miller-Rabin test of an odd n > 3 with the given number of random bases.
+	 */
+	static boolean isProbablePrime(BigInteger n, int rounds, Random rnd) {
+		BigInteger n_minus_one = n.subtract(BigInteger.ONE);
+		int s = n_minus_one.getLowestSetBit();
+		BigInteger d = n_minus_one.shiftRight(s);
+
+		for (int round = 0; round < rounds; round++) {
+			BigInteger a;
+			do {
+				a = new BigInteger(n.bitLength(), rnd);
+			} while (a.compareTo(BigInteger.ONE) <= 0 || a.compareTo(n_minus_one) >= 0);
+
+			BigInteger x = a.modPow(d, n);
+			if (x.equals(BigInteger.ONE) || x.equals(n_minus_one))
+				continue;
+
+			boolean witness = true;
+			for (int i = 1; i < s && witness; i++) {
+				x = x.multiply(x).mod(n);
+				if (x.equals(BigInteger.ONE))
+					return false;
+				if (x.equals(n_minus_one))
+					witness = false;
+			}
+			if (witness)
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int[] smallPrimes(int bound) {
+		boolean[] composite = new boolean[bound];
+		List<Integer> primes = new ArrayList<>();
+		for (int i = 3; i < bound; i += 2) {
+			if (composite[i])
+				continue;
+			primes.add(i);
+			for (long j = (long) i * i; j < bound; j += 2 * i)
+				composite[(int) j] = true;
+		}
+
+		int[] result = new int[primes.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = primes.get(i);
+		return result;
+	}
+}
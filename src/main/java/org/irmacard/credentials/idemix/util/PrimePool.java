@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * A pool of fresh primes in [2^start, 2^start + 2^length], as generated by
+ * {@link Crypto#probablyPrimeInBitRange(int, int)}, that is kept filled by
+ * background threads (see {@link BackgroundPool}). This takes the prime
+ * search for the signature exponent e off the critical path of issuance.
+ */
+public class PrimePool extends BackgroundPool<BigInteger> {
+	private final int start_in_bits;
+	private final int length_in_bits;
+
+	/**
+	 * @param start_in_bits		start of the interval (in bits)
+	 * @param length_in_bits	length of the interval (in bits)
+	 * @param capacity			maximum number of primes in the pool
+	 * @param lowWatermark		refill when fewer than this many primes are left
+	 * @param threads			number of background threads
+	 */
+	public PrimePool(int start_in_bits, int length_in_bits, int capacity, int lowWatermark, int threads) {
+		super(capacity, lowWatermark, threads, "irma-prime-pool");
+
+		this.start_in_bits = start_in_bits;
+		this.length_in_bits = length_in_bits;
+		start();
+	}
+
+	@Override
+	protected BigInteger generate() {
+		return Crypto.probablyPrimeInBitRange(start_in_bits, length_in_bits);
+	}
+
+	/**
+	 * Whether this pool contains primes of the given range.
+	 */
+	public boolean isFor(int start_in_bits, int length_in_bits) {
+		return this.start_in_bits == start_in_bits && this.length_in_bits == length_in_bits;
+	}
+}
@@ -26,7 +26,13 @@ import org.irmacard.credentials.idemix.info.IdemixKeyStoreDeserializer;
 import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
 import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
 import org.irmacard.credentials.idemix.proofs.*;
+import org.irmacard.credentials.idemix.util.BatchInverse;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.CryptoTask;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.MultiExp;
+import org.irmacard.credentials.idemix.util.PrimeGenerator;
+import org.irmacard.credentials.idemix.util.PrimePool;
 import org.irmacard.credentials.info.*;
 import org.junit.Test;
 
@@ -35,6 +41,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -90,6 +105,275 @@ public class IRMACryptoTest {
 		assertTrue("Signature is not valid", sig_randomized.verify(pk, ms));
 	}
 
+	@Test
+	public void testPreparedPublicKey() {
+		IdemixPublicKey prepared = new IdemixPublicKey(pk.getModulus(), pk.getGeneratorZ(),
+				pk.getGeneratorS(), pk.getGeneratorsR());
+		prepared.prepare();
+		assertTrue(prepared.isPrepared());
+
+		BigInteger n = pk.getModulus();
+		Random rnd = new Random();
+		for (int bits : new int[] {1, 7, 256, 600, 2100, 5000}) {
+			BigInteger x = new BigInteger(bits, rnd);
+			assertTrue(pk.getGeneratorS().modPow(x, n).equals(prepared.modPowS(x)));
+			assertTrue(pk.getGeneratorZ().modPow(x, n).equals(prepared.modPowZ(x)));
+			assertTrue(pk.getGeneratorR(2).modPow(x, n).equals(prepared.modPowR(2, x)));
+			assertTrue(pk.getGeneratorS().modPow(x.negate(), n).equals(prepared.modPowS(x.negate())));
+		}
+		assertTrue(prepared.modPowS(BigInteger.ZERO).equals(BigInteger.ONE));
+
+		// Exponents whose signed recoding carries into the last window
+		FixedBaseTable table = new FixedBaseTable(pk.getGeneratorS(), n, 100);
+		BigInteger max = Crypto.TWO.pow(table.getMaxBits()).subtract(BigInteger.ONE);
+		for (BigInteger x : Arrays.asList(max, max.negate(), max.shiftRight(1).add(BigInteger.ONE),
+				new BigInteger("88888888888888888888888", 16), new BigInteger("-99999999999999999", 16))) {
+			assertTrue(pk.getGeneratorS().modPow(x, n).equals(table.pow(x)));
+		}
+
+		CLSignature signature = CLSignature.signMessageBlock(sk, prepared, attributes);
+		assertTrue("Signature is not valid", signature.verify(pk, attributes));
+		assertTrue("Signature is not valid", signature.verify(prepared, attributes));
+
+		IdemixCredential cred = new IdemixCredential(prepared, attributes, signature);
+		BigInteger context = new BigInteger(pk.getSystemParameters().get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(pk.getSystemParameters().get_l_statzk(), rnd);
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce1);
+		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, nonce1));
+		assertTrue("Proof of disclosure should verify", proof.verify(prepared, context, nonce1));
+	}
+
+	@Test
+	public void testMultiExp() {
+		IdemixPublicKey prepared = new IdemixPublicKey(pk.getModulus(), pk.getGeneratorZ(),
+				pk.getGeneratorS(), pk.getGeneratorsR());
+		prepared.prepare();
+
+		BigInteger n = pk.getModulus();
+		Random rnd = new Random();
+
+		// Few bases use separate modPows or Straus, many use Pippenger
+		for (int k : new int[] {1, 2, 5, 60}) {
+			MultiExp plain = pk.newMultiExp();
+			MultiExp tables = prepared.newMultiExp();
+			BigInteger expected = BigInteger.ONE;
+			for (int i = 0; i < k; i++) {
+				BigInteger base = i % 3 == 0 ? pk.getGeneratorR(i % pk.getGeneratorsR().size())
+						: new BigInteger(n.bitLength() - 1, rnd);
+				BigInteger exponent = new BigInteger(1 + rnd.nextInt(600), rnd);
+				if (i % 4 == 1)
+					exponent = exponent.negate();
+
+				plain.add(base, exponent);
+				tables.add(base, exponent);
+				expected = expected.multiply(base.modPow(exponent, n)).mod(n);
+			}
+			assertTrue(expected.equals(plain.compute()));
+			assertTrue(expected.equals(tables.compute()));
+		}
+
+		assertTrue(pk.newMultiExp().compute().equals(BigInteger.ONE));
+		assertTrue(prepared.newMultiExp().add(pk.getGeneratorS(), BigInteger.ONE.negate())
+				.compute().equals(pk.getGeneratorS().modInverse(n)));
+
+		// Even moduli are computed with separate modPows, hashing long exponents as usual
+		BigInteger even = n.add(BigInteger.ONE);
+		List<BigInteger> bases = Arrays.asList(pk.getGeneratorS(), pk.getGeneratorZ(), pk.getGeneratorR(0));
+		List<BigInteger> exps = Arrays.asList(BigInteger.TEN, BigInteger.ONE, BigInteger.ONE.shiftLeft(300));
+		BigInteger expected = bases.get(0).modPow(exps.get(0), even)
+				.multiply(bases.get(1)).multiply(bases.get(2).modPow(
+						Crypto.sha256Hash(exps.get(2).toByteArray()), even)).mod(even);
+		assertTrue(expected.equals(Crypto.representToBases(bases, exps, even, 256)));
+	}
+
+	@Test
+	public void testBatchInverse() {
+		BigInteger n = pk.getModulus();
+		Random rnd = new Random();
+
+		BatchInverse inverses = new BatchInverse(n);
+		List<BigInteger> elements = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			BigInteger x = new BigInteger(n.bitLength() - 1, rnd);
+			elements.add(x);
+			inverses.add(x);
+		}
+		inverses.add(elements.get(3));
+		inverses.invert();
+
+		assertTrue(inverses.size() == 10);
+		for (BigInteger x : elements)
+			assertTrue(x.modInverse(n).equals(inverses.get(x)));
+
+		BigInteger U = elements.get(0);
+		assertTrue(pk.newMultiExp().useInverses(inverses).add(U, BigInteger.TEN.negate()).compute()
+				.equals(U.modPow(BigInteger.TEN.negate(), n)));
+	}
+
+	@Test
+	public void testSecretKeyCRT() {
+		BigInteger n = pk.getModulus();
+		Random rnd = new Random();
+
+		for (int bits : new int[] {1, 300, 2100}) {
+			BigInteger base = new BigInteger(n.bitLength() - 1, rnd);
+			BigInteger x = new BigInteger(bits, rnd);
+			assertTrue(base.modPow(x, n).equals(sk.modPow(base, x)));
+			assertTrue(base.modPow(x.negate(), n).equals(sk.modPow(base, x.negate())));
+		}
+
+		BigInteger x = new BigInteger(n.bitLength() - 1, rnd);
+		BigInteger e = Crypto.probablyPrimeInBitRange(pk.getSystemParameters().get_l_e() - 1,
+				pk.getSystemParameters().get_l_e_prime() - 1);
+		assertTrue(sk.root(x, e).modPow(e, n).equals(x));
+	}
+
+	@Test
+	public void testPrimePool() {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
+		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
+
+		PrimePool pool = IdemixIssuer.createPrimePool(params, 4, 2, 1);
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, BigInteger.ONE);
+		issuer.setPrimePool(pool);
+
+		BigInteger U = pk.getGeneratorS().modPow(BigInteger.TEN, pk.getModulus());
+		Set<BigInteger> primes = new HashSet<>();
+		for (int i = 0; i < 6; i++) {
+			CLSignature sig = issuer.signForIssuance(U, attributes).getSignature();
+			assertTrue(sig.get_e().compareTo(start) >= 0 && sig.get_e().compareTo(end) <= 0);
+			assertTrue(primes.add(sig.get_e()));
+		}
+		assertTrue(pool.getHits() + pool.getMisses() == 6);
+		pool.shutdown();
+	}
+
+	@Test
+	public void testSigningPool() {
+		SigningPool pool = new SigningPool(sk, pk, 3, 1, 1);
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, BigInteger.ONE);
+		issuer.setSigningPool(pool);
+
+		Random rnd = new Random();
+		BigInteger n_2 = new BigInteger(pk.getSystemParameters().get_l_statzk(), rnd);
+		BigInteger U = pk.getGeneratorS().modPow(BigInteger.TEN, pk.getModulus());
+		Set<BigInteger> primes = new HashSet<>();
+		for (int i = 0; i < 5; i++) {
+			IssuanceContext issuance = issuer.signForIssuance(U, attributes);
+			CLSignature sig = issuance.getSignature();
+			assertTrue(primes.add(sig.get_e()));
+			assertTrue(issuer.proveSignature(issuance, n_2).verify(pk, sig, BigInteger.ONE, n_2));
+
+			// Undo the commitment U = S^10
+			CLSignature full = new CLSignature(sig.getA(), sig.get_e(), sig.get_v().add(BigInteger.TEN));
+			List<BigInteger> ms = new ArrayList<>();
+			ms.add(BigInteger.ZERO);
+			ms.addAll(attributes);
+			assertTrue("Signature is not valid", full.verify(pk, ms));
+		}
+		assertTrue(pool.getHits() + pool.getMisses() == 5);
+		pool.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPrimePoolWrongRange() {
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, BigInteger.ONE);
+		issuer.setPrimePool(new PrimePool(10, 5, 1, 0, 1));
+	}
+
+	@Test
+	public void testPrimeGenerator() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		PrimeGenerator[] generators = { new PrimeGenerator(), new PrimeGenerator(4, executor, 2) };
+
+		for (PrimeGenerator generator : generators) {
+			for (int[] range : new int[][] { {596, 119}, {10, 5}, {40, 20} }) {
+				BigInteger start = Crypto.TWO.pow(range[0]);
+				BigInteger end = start.add(Crypto.TWO.pow(range[1]));
+				BigInteger prime = generator.probablyPrimeInBitRange(range[0], range[1]);
+				assertTrue(prime.compareTo(start) >= 0 && prime.compareTo(end) < 0);
+				assertTrue(prime.isProbablePrime(100));
+			}
+		}
+
+		executor.shutdown();
+	}
+
+	@Test
+	public void testBatchVerification() {
+		Random rnd = new Random();
+		CLSignatureBatchVerifier batch = new CLSignatureBatchVerifier(pk);
+		List<CLSignature> signatures = new ArrayList<>();
+		List<List<BigInteger>> messages = new ArrayList<>();
+		for (int j = 0; j < 10; j++) {
+			List<BigInteger> ms = new ArrayList<>();
+			for (int i = 0; i < 4; i++)
+				ms.add(new BigInteger(pk.getSystemParameters().get_l_m(), rnd));
+			CLSignature sig = CLSignature.signMessageBlock(sk, pk, ms);
+			signatures.add(sig);
+			messages.add(ms);
+			batch.add(sig, ms);
+		}
+		assertTrue("Batch should verify", batch.verify());
+		assertTrue(batch.findInvalid().isEmpty());
+
+		// Break the signature of number 3 and the messages of number 7
+		CLSignatureBatchVerifier broken = new CLSignatureBatchVerifier(pk);
+		for (int j = 0; j < 10; j++) {
+			CLSignature sig = signatures.get(j);
+			List<BigInteger> ms = messages.get(j);
+			if (j == 3)
+				sig = new CLSignature(sig.getA(), sig.get_e(), sig.get_v().add(BigInteger.ONE));
+			if (j == 7)
+				ms = Arrays.asList(ms.get(1), ms.get(0), ms.get(2), ms.get(3));
+			broken.add(sig, ms);
+		}
+		assertFalse("Batch should not verify", broken.verify());
+		assertTrue(broken.findInvalid().equals(Arrays.asList(3, 7)));
+
+		// Without the secret key, signatures are valid up to the sign of A; with it, -A is caught
+		BigInteger n = pk.getModulus();
+		CLSignatureBatchVerifier signless = new CLSignatureBatchVerifier(pk);
+		CLSignatureBatchVerifier negated = new CLSignatureBatchVerifier(pk, sk);
+		for (int j = 0; j < 10; j++) {
+			CLSignature sig = signatures.get(j);
+			if (j == 5)
+				sig = new CLSignature(n.subtract(sig.getA()), sig.get_e(), sig.get_v());
+			signless.add(sig, messages.get(j));
+			negated.add(sig, messages.get(j));
+		}
+		assertTrue("Batch with -A should verify up to sign", signless.verify());
+		assertTrue(signless.findInvalid().isEmpty());
+		assertFalse("Batch with -A should not verify", negated.verify());
+		assertTrue(negated.findInvalid().equals(Arrays.asList(5)));
+
+		CLSignatureBatchVerifier audit = new CLSignatureBatchVerifier(pk, sk);
+		for (int j = 0; j < 10; j++)
+			audit.add(signatures.get(j), messages.get(j));
+		assertTrue("Batch should verify", audit.verify());
+		assertTrue(audit.findInvalid().isEmpty());
+
+		// Valid signatures whose A is not a square modulo p, since S is not
+		IdemixPublicKey nonsquare = new IdemixPublicKey(n, pk.getGeneratorZ(),
+				n.subtract(pk.getGeneratorS()), pk.getGeneratorsR());
+		CLSignatureBatchVerifier mixed = new CLSignatureBatchVerifier(nonsquare, sk);
+		boolean nonsquareA = false;
+		for (int j = 0; j < 10 || !nonsquareA; j++) {
+			List<BigInteger> ms = messages.get(j % 10);
+			CLSignature sig = CLSignature.signMessageBlock(sk, nonsquare, ms);
+			assertTrue(sig.verify(nonsquare, ms));
+			nonsquareA |= Crypto.jacobi(sig.getA(), sk.get_p()) == -1;
+			mixed.add(sig, ms);
+		}
+		assertTrue("Batch should verify", mixed.verify());
+		assertTrue(mixed.findInvalid().isEmpty());
+
+		assertTrue(Crypto.jacobi(BigInteger.valueOf(2), BigInteger.valueOf(7)) == 1);
+		assertTrue(Crypto.jacobi(BigInteger.valueOf(3), BigInteger.valueOf(7)) == -1);
+		assertTrue(Crypto.jacobi(n.subtract(BigInteger.ONE), n) == 1);
+	}
+
 	@Test
 	public void testASN1Encoding1() {
 		byte[] enc = Crypto.asn1Encode(new BigInteger("1"),
@@ -204,6 +488,23 @@ public class IRMACryptoTest {
 		assertFalse(proof.verify(pk, sig, BigInteger.TEN, nonce));
 	}
 
+	@Test
+	public void testProofSFromIssuanceContext() {
+		Random rnd = new Random();
+		BigInteger exponent = new BigInteger(pk.getSystemParameters().get_l_m(), rnd);
+		BigInteger U = pk.getGeneratorS().modPow(exponent, pk.getModulus());
+		BigInteger context = new BigInteger(pk.getSystemParameters().get_l_h(), rnd);
+		BigInteger nonce = new BigInteger(pk.getSystemParameters().get_l_statzk(), rnd);
+
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		IssuanceContext issuance = issuer.signForIssuance(U, attributes);
+		CLSignature sig = issuance.getSignature();
+		assertTrue(issuance.getQ().equals(sig.getA().modPow(sig.get_e(), pk.getModulus())));
+
+		ProofS proof = issuer.proveSignature(issuance, nonce);
+		assertTrue(proof.verify(pk, sig, issuer.getContext(), nonce));
+	}
+
 	@Test
 	public void testProofSLogged() {
 		BigInteger context = new BigInteger("34911926065354700717429826907189165808787187263593066036316982805908526740809");
@@ -258,6 +559,489 @@ public class IRMACryptoTest {
 		cb.constructCredential(msg);
 	}
 
+	@Test
+	public void testBatchIssuance() throws CredentialsException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+
+		List<CredentialBuilder> builders = new ArrayList<>();
+		List<IssueRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+			BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+			CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+			IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+
+			// The third request uses the wrong nonce
+			builders.add(cb);
+			requests.add(new IssueRequest(commit_msg, attributes, i == 2 ? n_1.add(BigInteger.ONE) : n_1));
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		List<IssueResult> results = issuer.issueSignatures(requests, executor);
+
+		assertTrue(results.size() == 4);
+		for (int i = 0; i < 4; i++) {
+			if (i == 2) {
+				assertFalse(results.get(i).isSuccess());
+				assertTrue(results.get(i).getError() instanceof CredentialsException);
+			} else {
+				assertTrue(results.get(i).isSuccess());
+				builders.get(i).constructCredential(results.get(i).getMessage());
+			}
+		}
+
+		// Asking to prepare the keys builds the tables of a fresh key once, before any request starts
+		final IdemixPublicKey batchKey = new IdemixPublicKey(pk.getModulus(), pk.getGeneratorZ(),
+				pk.getGeneratorS(), new ArrayList<>(pk.getGeneratorsR()));
+		IdemixIssuer batchIssuer = new IdemixIssuer(batchKey, sk, context);
+		final List<Object> seen = Collections.synchronizedList(new ArrayList<Object>());
+		Executor recording = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				seen.add(batchKey.getTables());
+				executor.execute(task);
+			}
+		};
+
+		for (int batch = 0; batch < 2; batch++) {
+			builders.clear();
+			requests.clear();
+			for (int i = 0; i < 4; i++) {
+				BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+				BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+				CredentialBuilder cb = new CredentialBuilder(batchKey, attributes, context);
+				builders.add(cb);
+				requests.add(new IssueRequest(cb.commitToSecretAndProve(secret, n_1), attributes, n_1));
+			}
+
+			assertTrue(batchKey.isPrepared() == (batch > 0));
+			results = batchIssuer.issueSignatures(requests, recording, true);
+			for (int i = 0; i < 4; i++) {
+				assertTrue(results.get(i).isSuccess());
+				builders.get(i).constructCredential(results.get(i).getMessage());
+			}
+		}
+		executor.shutdown();
+
+		Object tables = batchKey.getTables();
+		assertTrue(tables != null && seen.size() == 8);
+		for (Object t : seen)
+			assertTrue("Every request should use the same tables", t == tables);
+	}
+
+	@Test
+	public void testCombinedIssuanceSession() throws CredentialsException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger n_2 = CredentialBuilder.createReceiverNonce(pk);
+
+		CLSignature signature1 = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred1 = new IdemixCredential(pk, attributes, signature1);
+
+		List<BigInteger> attributes2 = new ArrayList<>(attributes);
+		attributes2.set(3, BigInteger.TEN);
+		CredentialBuilder cb1 = new CredentialBuilder(pk, attributes, context, n_2);
+		CredentialBuilder cb2 = new CredentialBuilder(pk, attributes2, context, n_2);
+
+		ProofListBuilder builder = new ProofListBuilder(context, n_1)
+				.addProofD(cred1, Arrays.asList(1, 2))
+				.addCredentialBuilder(cb1)
+				.addCredentialBuilder(cb2);
+		IssueCommitmentMessage commit_msg = new IssueCommitmentMessage(builder.build(), n_2);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		List<IssueSignatureMessage> msgs = issuer.issueSignatures(commit_msg,
+				Arrays.asList(attributes, attributes2), n_1, executor);
+		executor.shutdown();
+
+		assertTrue(msgs.size() == 2);
+		cb1.constructCredential(msgs.get(0));
+		cb2.constructCredential(msgs.get(1));
+	}
+
+	@Test
+	public void testCombinedIssuanceSessionCount() {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		IssueCommitmentMessage single = cb.commitToSecretAndProve(secret, n_1);
+		IssueCommitmentMessage combined = new IssueCommitmentMessage(new ProofListBuilder(context, n_1)
+				.addCredentialBuilder(new CredentialBuilder(pk, attributes, context))
+				.build(), cb.getNonce2());
+
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		for (IssueCommitmentMessage msg : Arrays.asList(single, combined)) {
+			boolean rejected = false;
+			try {
+				issuer.issueSignatures(msg, Arrays.asList(attributes, attributes), n_1, null);
+			} catch (CredentialsException e) {
+				rejected = true;
+			}
+			assertTrue("More attribute lists than commitments should be rejected", rejected);
+		}
+	}
+
+	@Test
+	public void testSpeculativeIssuance() throws Exception {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		issuer.setSpeculativeExecutor(executor);
+
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+		cb.constructCredential(issuer.issueSignature(commit_msg, attributes, n_1));
+
+		boolean rejected = false;
+		try {
+			issuer.issueSignature(commit_msg, attributes, n_1.add(BigInteger.ONE));
+		} catch (CredentialsException e) {
+			rejected = true;
+		}
+		assertTrue("Issuance with an invalid commitment proof should fail", rejected);
+
+		// Issuing on the speculative executor itself must not wait for a signing task queued behind it
+		cb = new CredentialBuilder(pk, attributes, context);
+		commit_msg = cb.commitToSecretAndProve(secret, n_1);
+		IssueSignatureMessage msg = issuer.issueSignatureAsync(commit_msg, attributes, 0, n_1, executor)
+				.get(1, TimeUnit.MINUTES);
+		cb.constructCredential(msg);
+
+		// If the executor rejects the signing task, the commitments are still verified first
+		executor.shutdown();
+		rejected = false;
+		try {
+			issuer.issueSignature(commit_msg, attributes, n_1.add(BigInteger.ONE));
+		} catch (CredentialsException e) {
+			rejected = true;
+		}
+		assertTrue("Issuance with an invalid commitment proof should fail", rejected);
+		cb.constructCredential(issuer.issueSignature(commit_msg, attributes, n_1));
+	}
+
+	@Test
+	public void testAsyncIssuance() throws Exception {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+		IssueSignatureMessage msg = issuer.issueSignatureAsync(commit_msg, attributes, 0, n_1, null).get();
+		IdemixCredential cred = cb.constructCredentialAsync(msg, null).get();
+
+		ProofList proofs = new ProofListBuilder(context, n_1)
+				.addProofD(cred, Arrays.asList(1, 2))
+				.buildAsync(null).get();
+		assertTrue(proofs.verifyAsync(context, n_1, true, null).get());
+
+		// Failures are passed to the callbacks, also when added after completion
+		final List<Throwable> errors = new ArrayList<>();
+		CryptoTask<IssueSignatureMessage> task = issuer.issueSignatureAsync(commit_msg, attributes, 0,
+				n_1.add(BigInteger.ONE), null);
+		try {
+			task.get();
+		} catch (ExecutionException e) {
+			errors.add(e.getCause());
+		}
+		task.addCallback(new CryptoTask.Callback<IssueSignatureMessage>() {
+			@Override
+			public void onSuccess(IssueSignatureMessage result) {
+			}
+
+			@Override
+			public void onFailure(Throwable error) {
+				errors.add(error);
+			}
+		});
+		assertTrue(errors.size() == 2);
+		assertTrue(errors.get(0) instanceof CredentialsException);
+		assertTrue(errors.get(1) == errors.get(0));
+	}
+
+	@Test
+	public void testVerificationService() throws Exception {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+		ProofList proofs = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1, 2))
+				.build();
+
+		// Submitting is much faster than verifying, so a single worker with a short queue overflows
+		for (VerificationService.OverloadPolicy policy : VerificationService.OverloadPolicy.values()) {
+			VerificationService service = new VerificationService(1, 2, policy);
+			List<CryptoTask<Boolean>> tasks = new ArrayList<>();
+			for (int i = 0; i < 20; i++)
+				tasks.add(service.submit(proofs, context, nonce1, true));
+			service.shutdown();
+			assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+
+			int verified = 0;
+			for (CryptoTask<Boolean> task : tasks) {
+				try {
+					assertTrue(task.get());
+					verified++;
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof RejectedExecutionException);
+				}
+			}
+			assertTrue(verified == service.getCompleted());
+			assertTrue(verified + service.getRejected() + service.getShed() == 20);
+			assertTrue(service.getMaxQueueDepth() <= 2);
+			assertTrue(service.getVerifyLatency().getCount() == verified);
+			if (policy == VerificationService.OverloadPolicy.REJECT)
+				assertTrue(service.getRejected() > 0 && service.getShed() == 0);
+			else
+				assertTrue(service.getShed() > 0 && service.getRejected() == 0);
+		}
+
+		// Requests that wait longer than their deadline fail at the deadline, and leave the queue
+		VerificationService service = new VerificationService(1, 10, VerificationService.OverloadPolicy.REJECT);
+		for (int i = 0; i < 5; i++)
+			service.submit(proofs, context, nonce1, true);
+		CryptoTask<Boolean> late = service.submit(proofs, context, nonce1, true, 1, TimeUnit.MILLISECONDS);
+		boolean expired = false;
+		try {
+			late.get();
+		} catch (ExecutionException e) {
+			expired = e.getCause() instanceof TimeoutException;
+		}
+		assertTrue("Expired request should not be verified", expired);
+		assertTrue("Request should expire while others are still waiting", service.getCompleted() < 5);
+		assertTrue(service.getQueueDepth() < 5);
+		service.shutdown();
+		assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+		assertTrue(service.getExpired() == 1 && service.getCompleted() == 5);
+
+		// A request that is cancelled while waiting leaves the queue at once
+		final CountDownLatch release = new CountDownLatch(1);
+		ProofList blocking = new ProofList() {
+			@Override
+			public boolean verify(BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		};
+		service = new VerificationService(1, 1, VerificationService.OverloadPolicy.REJECT);
+		CryptoTask<Boolean> running = service.submit(blocking, context, nonce1, true);
+		while (service.getQueueDepth() > 0)
+			Thread.sleep(1);
+		CryptoTask<Boolean> queued = service.submit(proofs, context, nonce1, true, 1, TimeUnit.MINUTES);
+		assertTrue(service.getQueueDepth() == 1);
+		assertTrue(queued.cancel(false));
+		assertTrue(queued.isCancelled() && service.getQueueDepth() == 0);
+		CryptoTask<Boolean> next = service.submit(proofs, context, nonce1, true);
+		assertTrue("The cancelled request should have made room", service.getRejected() == 0);
+		release.countDown();
+		assertTrue(running.get() && next.get());
+		service.shutdown();
+		assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+		assertTrue(service.getCompleted() == 2 && service.getExpired() == 0);
+	}
+
+	@Test
+	public void testAdmissionControl() throws KeyException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+		ProofList disclosing = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1, 2, 3))
+				.build();
+		ProofList hiding = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1))
+				.build();
+		long cost = VerificationCost.estimate(disclosing);
+		assertTrue(cost > 0 && VerificationCost.estimate(hiding) > cost);
+
+		// Oversized exponents make a proof more expensive
+		ProofD proof = (ProofD) disclosing.get(0);
+		ProofList inflated = new ProofList();
+		inflated.add(new ProofD(proof.get_c(), proof.getA(), proof.get_e_response(),
+				proof.get_v_response().shiftLeft(100000), proof.get_a_responses(), proof.get_a_disclosed()));
+		inflated.setPublicKeys(Arrays.asList(pk));
+		assertTrue(VerificationCost.estimate(inflated) > 10 * cost);
+
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(new BigInteger(params.get_l_m(), rnd), nonce1);
+		assertTrue(VerificationCost.estimate(commit_msg, pk) > 0);
+
+		AdmissionController admission = new AdmissionController(1, cost * 3 / 2);
+		assertTrue(admission.admit("alice", disclosing));
+		assertFalse(admission.admit("alice", disclosing));
+		assertTrue(admission.admit("bob", disclosing));
+		assertFalse(admission.admit("bob", inflated));
+		assertTrue(admission.getAdmitted() == 2 && admission.getRefused() == 2);
+
+		// Malformed proofs are refused or priced, without exceptions
+		ProofList malformed = new ProofList();
+		malformed.add(new ProofD(null, null, null, null, null, null));
+		assertFalse(admission.admit("carol", malformed)); // Its public key cannot be looked up...
+		malformed.setPublicKeys(Arrays.asList(pk));
+		assertTrue(admission.admit("carol", malformed)); // ... but with a key it costs next to nothing
+		assertFalse(malformed.verify(context, nonce1, false));
+
+		// Clients whose budget is full again are forgotten as new ones arrive
+		AdmissionController flooded = new AdmissionController(1000L * 1000 * 1000 * 1000, 1000);
+		for (int i = 0; i < 10000; i++)
+			assertTrue(flooded.admit("client" + i, 1000));
+		assertTrue(flooded.getClientCount() < 2000);
+		int known = flooded.getClientCount();
+		assertFalse(flooded.admit("mallory", 1001)); // Never fits, so not remembered
+		assertTrue(flooded.getClientCount() == known);
+	}
+
+	@Test
+	public void testMalformedProofs() {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger n = pk.getModulus();
+
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+		ProofList proofs = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1, 2))
+				.build();
+		assertTrue(proofs.isWellFormed(1));
+		assertFalse(proofs.isWellFormed(0));
+
+		ProofD proof = (ProofD) proofs.get(0);
+		BigInteger c = proof.get_c();
+		HashMap<Integer, BigInteger> responses = proof.get_a_responses();
+		HashMap<Integer, BigInteger> disclosed = proof.get_a_disclosed();
+		HashMap<Integer, BigInteger> unknownIndex = new HashMap<>(responses);
+		unknownIndex.put(pk.getGeneratorsR().size(), BigInteger.ONE);
+
+		List<ProofD> malformed = Arrays.asList(
+				new ProofD(c, proof.getA(), proof.get_e_response(),
+						proof.get_v_response().shiftLeft(10000000), responses, disclosed),
+				new ProofD(c, n, proof.get_e_response(), proof.get_v_response(), responses, disclosed),
+				new ProofD(c, proof.getA(), proof.get_e_response(), proof.get_v_response(), unknownIndex, disclosed),
+				new ProofD(c.negate(), proof.getA(), proof.get_e_response(), proof.get_v_response(), responses, disclosed),
+				new ProofD(c, proof.getA(), null, proof.get_v_response(), responses, disclosed));
+		for (ProofD p : malformed) {
+			ProofList list = new ProofList();
+			list.add(p);
+			list.setPublicKeys(Arrays.asList(pk));
+			assertFalse(list.isWellFormed());
+			assertFalse(list.verify(context, nonce1, false));
+		}
+
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		ProofU proofU = cb.commitToSecretAndProve(new BigInteger(params.get_l_m(), rnd), nonce1).getCommitmentProof();
+		assertTrue(proofU.isWellFormed(pk));
+		assertFalse(new ProofU(BigInteger.ZERO, proofU.get_c(), proofU.get_v_prime_response(),
+				proofU.get_s_response()).isWellFormed(pk));
+		assertFalse(new ProofU(proofU.getU(), proofU.get_c(), proofU.get_v_prime_response().shiftLeft(64),
+				proofU.get_s_response()).isWellFormed(pk));
+	}
+
+	@Test
+	public void testIssuanceTemplate() throws CredentialsException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+
+		HashMap<Integer, BigInteger> fixed = new HashMap<>();
+		fixed.put(0, attributes.get(0));
+		fixed.put(2, attributes.get(2));
+		IssuanceTemplate template = new IssuanceTemplate(fixed);
+		assertTrue(template.matches(attributes));
+
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		issuer.setTemplate(template);
+
+		List<BigInteger> other = new ArrayList<>(attributes);
+		other.set(2, BigInteger.TEN);
+		for (List<BigInteger> attrs : Arrays.asList(attributes, other)) {
+			BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+			BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+			CredentialBuilder cb = new CredentialBuilder(pk, attrs, context);
+			IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+			IssueSignatureMessage msg = issuer.issueSignature(commit_msg, attrs, n_1);
+			cb.constructCredential(msg);
+		}
+
+		// The cached product follows the generators, not the key object
+		BigInteger n = pk.getModulus();
+		IdemixPublicKey copy = new IdemixPublicKey(n, pk.getGeneratorZ(),
+				pk.getGeneratorS(), new ArrayList<>(pk.getGeneratorsR()));
+		assertTrue(template.getProduct(copy).equals(template.getProduct(pk)));
+		copy.set_Ri(3, pk.getGeneratorR(3).pow(2).mod(n));
+		BigInteger expected = copy.getGeneratorR(1).modPow(attributes.get(0), n)
+				.multiply(copy.getGeneratorR(3).modPow(attributes.get(2), n)).mod(n);
+		assertTrue(template.getProduct(copy).equals(expected));
+		assertFalse(template.getProduct(pk).equals(expected));
+	}
+
+	@Test
+	public void testPreparedCommitment() throws CredentialsException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+		PreparedCommitment prepared = new PreparedCommitment(pk, secret);
+
+		CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+		cb.setSecret(secret);
+		cb.usePreparedCommitment(prepared);
+		IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+		assertTrue(commit_msg.getCommitmentProof().verify(pk, context, n_1));
+		assertTrue(commit_msg.getCommitmentProof().getU().equals(prepared.getU()));
+
+		IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+		IssueSignatureMessage msg = issuer.issueSignature(commit_msg, attributes, n_1);
+		cb.constructCredential(msg);
+		assertTrue(prepared.isUsed());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPreparedCommitmentReuse() {
+		BigInteger secret = new BigInteger(pk.getSystemParameters().get_l_m(), new Random());
+		PreparedCommitment prepared = new PreparedCommitment(pk, secret);
+
+		for (int i = 0; i < 2; i++) {
+			CredentialBuilder cb = new CredentialBuilder(pk, attributes, BigInteger.ONE);
+			cb.setSecret(secret);
+			cb.usePreparedCommitment(prepared);
+		}
+	}
+
 	@Test
 	public void testShowingProof() {
 		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
@@ -275,6 +1059,64 @@ public class IRMACryptoTest {
 		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, nonce1));
 	}
 
+	@Test
+	public void testProofDPool() {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+		ProofDPool pool = new ProofDPool(cred, 3, 0, null);
+		pool.fill();
+		assertTrue(pool.size() == 3);
+		cred.setProofDPool(pool);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce1);
+		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, nonce1));
+
+		// The secret key randomizer is fixed by the list builder
+		ProofList proofs = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1))
+				.addProofD(cred, Arrays.asList(2, 3))
+				.build();
+		assertTrue("Combined disclosure proofs should verify", proofs.verify(context, nonce1, true));
+		assertTrue(pool.getHits() == 3 && pool.size() == 0);
+
+		proof = cred.createDisclosureProof(Arrays.asList(3), context, nonce1);
+		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, nonce1));
+		assertTrue(pool.getMisses() == 1);
+	}
+
+	@Test
+	public void testReconstructZ() {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 3), context, nonce1);
+
+		// Z' = known^{-c} * A^{e_response} * S^{v_response} * prod_{undisclosed} R_i^{a_response_i}
+		BigInteger n = pk.getModulus();
+		BigInteger A = proof.getA();
+		BigInteger known = A.modPow(Crypto.TWO.pow(params.get_l_e() - 1), n);
+		for (Map.Entry<Integer, BigInteger> entry : proof.get_a_disclosed().entrySet())
+			known = known.multiply(pk.getGeneratorR(entry.getKey()).modPow(entry.getValue(), n)).mod(n);
+		known = pk.getGeneratorZ().multiply(known.modInverse(n)).mod(n);
+
+		BigInteger Z = known.modPow(proof.get_c().negate(), n)
+				.multiply(A.modPow(proof.get_e_response(), n))
+				.multiply(pk.getGeneratorS().modPow(proof.get_v_response(), n)).mod(n);
+		for (Map.Entry<Integer, BigInteger> entry : proof.get_a_responses().entrySet())
+			Z = Z.multiply(pk.getGeneratorR(entry.getKey()).modPow(entry.getValue(), n)).mod(n);
+
+		assertTrue("Fused reconstruction should match the unfused one", Z.equals(proof.reconstructZ(pk)));
+	}
+
 	@Test
 	public void testDistributedShowingProof() {
 		List<BigInteger> attrs = new ArrayList<>();
@@ -441,6 +1283,88 @@ public class IRMACryptoTest {
 		assertTrue("Combined disclosure proofs should verify", collection.verify(context, nonce1, true));
 	}
 
+	@Test
+	public void testParallelProofListVerification() throws InterruptedException {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+
+		ProofList bound = new ProofListBuilder(context, nonce1)
+				.addProofD(cred, Arrays.asList(1, 2))
+				.addProofD(cred, Arrays.asList(1, 3))
+				.addProofD(cred, Arrays.asList(2))
+				.build();
+		assertTrue("Combined disclosure proofs should verify", bound.verify(context, nonce1, true, executor));
+
+		// Separately created proofs are valid, but not bound
+		ProofList unbound = new ProofList();
+		for (List<Integer> disclosed : Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3))) {
+			unbound.add(cred.createDisclosureProof(disclosed, context, nonce1));
+			unbound.addPublicKey(pk);
+		}
+		assertTrue("Unbound proofs should verify", unbound.verify(context, nonce1, false, executor));
+		assertFalse("Unbound proofs should not verify as bound", unbound.verify(context, nonce1, true, executor));
+
+		System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+		unbound.add(cred.createDisclosureProof(Arrays.asList(1), context, BigInteger.TEN));
+		unbound.addPublicKey(pk);
+		assertFalse("Proof with wrong nonce should not verify", unbound.verify(context, nonce1, false, executor));
+
+		// In a list that cannot be bound, the first proof that fails stops the others before they start
+		ProofList large = new ProofList();
+		final AtomicInteger reconstructed = new AtomicInteger();
+		for (int i = 0; i < 8; i++) {
+			ProofD p = cred.createDisclosureProof(Arrays.asList(1), context, i == 5 ? BigInteger.TEN : nonce1);
+			large.add(new ProofD(p.get_c(), p.getA(), p.get_e_response(), p.get_v_response(),
+					p.get_a_responses(), p.get_a_disclosed()) {
+				@Override
+				public List<BigInteger> getChallengeContribution(IdemixPublicKey pk, BatchInverse inverses) {
+					reconstructed.incrementAndGet();
+					return super.getChallengeContribution(pk, inverses);
+				}
+			});
+			large.addPublicKey(pk);
+		}
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService workers = Executors.newFixedThreadPool(8);
+		Executor gated = new Executor() {
+			private int submitted = 0;
+
+			@Override
+			public void execute(final Runnable task) {
+				// Only the bad proof runs before the verification is over
+				final boolean bad = submitted++ == 5;
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!bad)
+								release.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						task.run();
+					}
+				});
+			}
+		};
+		assertFalse("Proof with wrong nonce should not verify", large.verify(context, nonce1, false, gated));
+		release.countDown();
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(1, TimeUnit.MINUTES));
+		assertTrue("The other proofs should have been cancelled", reconstructed.get() == 1);
+
+		// Proofs that the executor rejects are verified on the calling thread
+		executor.shutdown();
+		assertTrue("Combined disclosure proofs should verify", bound.verify(context, nonce1, true, executor));
+	}
+
 	@Test
 	public void testCombinedDistributedShowingProof() throws InfoException, KeyException {
 		IssuerIdentifier pbdf = new IssuerIdentifier("pbdf.pbdf");